@@ -9,6 +9,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
 import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.api.TransportConfigCallback;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 
 import java.nio.charset.StandardCharsets;
@@ -61,6 +62,14 @@ public abstract class AbstractGitTask extends Task {
     public abstract String getBranch();
 
     protected <T extends TransportCommand> T authentified(T command, RunContext runContext) throws Exception {
+        return authentified(command, runContext, null);
+    }
+
+    /**
+     * Same as {@link #authentified(TransportCommand, RunContext)}, additionally applying the given callback to the transport
+     * once it has been configured for authentication.
+     */
+    protected <T extends TransportCommand> T authentified(T command, RunContext runContext, TransportConfigCallback transportConfigCallback) throws Exception {
         if (this.username != null && this.password != null) {
             command.setCredentialsProvider(new UsernamePasswordCredentialsProvider(
                 runContext.render(this.username),
@@ -68,11 +77,26 @@ public abstract class AbstractGitTask extends Task {
             ));
         }
 
+        TransportConfigCallback sshTransportConfigCallback = null;
         if (this.privateKey != null) {
-            command.setTransportConfigCallback(new SshTransportConfigCallback(
+            sshTransportConfigCallback = new SshTransportConfigCallback(
                 runContext.render(this.privateKey).getBytes(StandardCharsets.UTF_8),
                 runContext.render(this.passphrase)
-            ));
+            );
+        }
+
+        if (transportConfigCallback == null) {
+            if (sshTransportConfigCallback != null) {
+                command.setTransportConfigCallback(sshTransportConfigCallback);
+            }
+        } else if (sshTransportConfigCallback == null) {
+            command.setTransportConfigCallback(transportConfigCallback);
+        } else {
+            TransportConfigCallback sshCallback = sshTransportConfigCallback;
+            command.setTransportConfigCallback(transport -> {
+                sshCallback.configure(transport);
+                transportConfigCallback.configure(transport);
+            });
         }
 
         return command;
@@ -3,18 +3,49 @@ package io.kestra.plugin.git;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.annotations.PluginProperty;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.models.executions.metrics.Timer;
 import io.kestra.core.models.tasks.RunnableTask;
 import io.kestra.core.runners.RunContext;
+import io.kestra.plugin.git.services.CloneProgressMonitor;
+import io.kestra.plugin.git.services.MirrorCache;
+import io.kestra.plugin.git.services.MissingObjectsFetcher;
+import io.kestra.plugin.git.services.SubmoduleCloner;
+import io.kestra.plugin.git.services.WorkingTreeCheckout;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.*;
 import lombok.experimental.SuperBuilder;
 import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportBundleStream;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
 import org.slf4j.Logger;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 
 @SuperBuilder(toBuilder = true)
 @ToString
@@ -78,6 +109,8 @@ import java.nio.file.Path;
     }
 )
 public class Clone extends AbstractGitTask implements RunnableTask<Clone.Output> {
+    private static final int SUBMODULES_PARALLELISM = 8;
+
     @Schema(
         title = "The optional directory associated with the clone operation.",
         description = "If the directory isn't set, the current directory will be used."
@@ -101,6 +134,107 @@ public class Clone extends AbstractGitTask implements RunnableTask<Clone.Output>
     @PluginProperty
     private Boolean cloneSubmodules;
 
+    @Schema(
+        title = "Whether to also clone the submodules of submodules.",
+        description = "Only used when `cloneSubmodules` is enabled."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean recursiveSubmodules = true;
+
+    @Schema(
+        title = "Whether to only fetch the branch to check out.",
+        description = "When enabled, other branches of the remote are neither negotiated nor downloaded. Without a `branch`, the branch the remote HEAD points to is the one fetched."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean singleBranch = false;
+
+    @Schema(
+        title = "Whether to fetch tags.",
+        description = "If not set, only tags pointing to fetched commits are fetched. If true, all tags are fetched. If false, no tag is fetched."
+    )
+    @PluginProperty
+    private Boolean fetchTags;
+
+    @Schema(
+        title = "Partial clone filter, to avoid downloading objects that are not needed.",
+        description = "Supported filters are `blob:none` (no blob is downloaded upfront), `blob:limit=<n>` (blobs larger than `n` bytes are not downloaded upfront) " +
+            "and `tree:0` (neither trees nor blobs are downloaded upfront). " +
+            "Objects needed for the checkout are then fetched on demand from the remote, which is also recorded as a promisor remote for later Git usage on this working tree. " +
+            "Ignored when `mirrorCache` is enabled."
+    )
+    @PluginProperty(dynamic = true)
+    private String filter;
+
+    @Schema(
+        title = "Directories to check out, relative to the repository root.",
+        description = "Enables a cone-mode sparse checkout: only files at the root of the repository, files directly inside the parents of these directories, " +
+            "and everything below these directories are written to disk. As with `git sparse-checkout set --cone`, the index still lists every file of the repository, " +
+            "files outside the cone being marked skip-worktree, and the cone is saved in `.git/info/sparse-checkout`. " +
+            "When combined with a `filter`, only the blobs of these files are downloaded. If not set, the whole repository is checked out."
+    )
+    @PluginProperty(dynamic = true)
+    private List<String> paths;
+
+    @Schema(
+        title = "Whether to update the repository in place when `directory` already holds one.",
+        description = "When enabled and the target directory already contains a Git repository, only the new objects of the requested branch are fetched " +
+            "and the working tree is reset to it, rewriting only the files that changed. Without a `branch`, the branch the remote HEAD points to is checked out, as a clone does. " +
+            "Local modifications of tracked files are discarded, untracked files are kept. " +
+            "If the directory holds no repository yet, a regular clone is performed."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean update = false;
+
+    @Schema(
+        title = "Whether to clone through a worker-local mirror cache.",
+        description = "When enabled, a bare mirror of the repository is kept on the worker and updated with an incremental fetch on each run; " +
+            "the working tree is then cloned locally from that mirror instead of from the remote. " +
+            "This greatly reduces network transfers when the same repository is cloned repeatedly on the same worker. " +
+            "The cache lives in the temporary directory of the worker, which must not be shared with other workers."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean mirrorCache = false;
+
+    @Schema(
+        title = "The maximum size, in bytes, of the worker-local mirror cache.",
+        description = "Once exceeded, the least recently used mirrors are evicted. Only used when `mirrorCache` is enabled."
+    )
+    @PluginProperty
+    @Builder.Default
+    @Min(0)
+    private Long mirrorCacheMaxSize = 10L * 1024 * 1024 * 1024;
+
+    @Schema(
+        title = "Whether to check out the working tree with several threads.",
+        description = "When enabled, blobs are inflated and files are written concurrently across all available cores instead of one at a time, " +
+            "which speeds up the checkout of repositories holding many files."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean parallelCheckout = false;
+
+    @Schema(
+        title = "The URI in Kestra's internal storage of a Git bundle to seed the repository from.",
+        description = "When set, and `directory` doesn't hold a repository yet, the repository is first cloned from the bundle, " +
+            "then only the objects missing from it are fetched from `url`. Publishing bundles of large repositories regularly avoids a full clone over the network. " +
+            "`mirrorCache` is not used when a bundle is given."
+    )
+    @PluginProperty(dynamic = true)
+    private String bundle;
+
+    @Schema(
+        title = "Whether to clone a bare repository, without any working tree.",
+        description = "The repository is cloned directly into `directory`, only Git objects are written to disk. " +
+            "`paths` and `cloneSubmodules` are ignored for bare repositories."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean bare = false;
+
     @Override
     public Clone.Output run(RunContext runContext) throws Exception {
         Logger logger = runContext.logger();
@@ -112,31 +246,291 @@ public class Clone extends AbstractGitTask implements RunnableTask<Clone.Output>
             path = runContext.resolve(Path.of(directory));
         }
 
+        List<String> paths = this.paths == null ? null : runContext.render(this.paths);
+        String filter = this.filter == null ? null : runContext.render(this.filter);
+
+        boolean bare = Boolean.TRUE.equals(this.bare);
+        File gitDirectory = bare ? path.toFile() : path.resolve(Constants.DOT_GIT).toFile();
+        if (Boolean.TRUE.equals(this.update) && RepositoryCache.FileKey.isGitRepository(gitDirectory, FS.DETECTED)) {
+            return update(runContext, path, url, paths, filter);
+        }
+
+        if (this.bundle != null) {
+            seed(runContext, path, runContext.render(this.bundle));
+
+            return update(runContext, path, url, paths, filter);
+        }
+
         CloneCommand cloneCommand = Git.cloneRepository()
             .setURI(url)
-            .setDirectory(path.toFile());
+            .setDirectory(path.toFile())
+            .setBare(bare);
+
+        String branch = this.branch == null ? null : runContext.render(this.branch);
+        if (branch == null && Boolean.TRUE.equals(this.singleBranch)) {
+            // the default branch must be known up front to fetch nothing else
+            branch = remoteDefaultBranch(runContext, url);
+        }
+
+        if (branch != null) {
+            cloneCommand.setBranch(branch);
 
-        if (this.branch != null) {
-            cloneCommand.setBranch(runContext.render(this.branch));
+            if (Boolean.TRUE.equals(this.singleBranch)) {
+                cloneCommand
+                    .setCloneAllBranches(false)
+                    .setBranchesToClone(List.of(Constants.R_HEADS + branch));
+            }
+        }
+
+        if (this.fetchTags != null) {
+            cloneCommand.setTagOption(this.fetchTags ? TagOpt.FETCH_TAGS : TagOpt.NO_TAGS);
         }
 
         if (this.depth != null) {
             cloneCommand.setDepth(this.depth);
         }
 
-        if (this.cloneSubmodules != null) {
-            cloneCommand.setCloneSubmodules(this.cloneSubmodules);
+        // JGit can neither restrict its checkout, fetch missing objects lazily nor write files concurrently, so in such cases we do the checkout ourselves
+        boolean customCheckout = !bare && ((paths != null && !paths.isEmpty()) || filter != null || Boolean.TRUE.equals(this.parallelCheckout));
+        if (customCheckout) {
+            cloneCommand.setNoCheckout(true);
+        }
+
+        if (Boolean.TRUE.equals(this.mirrorCache)) {
+            MirrorCache cache = new MirrorCache(MirrorCache.DEFAULT_ROOT, this.mirrorCacheMaxSize, logger);
+
+            logger.info("Updating mirror cache from '{}'", url);
+
+            // transfer metrics are those of the mirror update, the only one going over the network
+            CloneProgressMonitor monitor = new CloneProgressMonitor();
+            try (MirrorCache.Lease lease = cache.acquire(url, command -> authentified(command, runContext), monitor)) {
+                logger.info("Start cloning from mirror cache '{}'", lease.directory());
+
+                // the mirror is a local repository, so no authentication is needed here
+                cloneCommand.setURI(lease.directory().toUri().toString());
+
+                CloneProgressMonitor localMonitor = new CloneProgressMonitor();
+                try (Git call = cloneCommand.setProgressMonitor(localMonitor).call()) {
+                    StoredConfig config = call.getRepository().getConfig();
+                    config.setString("remote", "origin", "url", url);
+                    config.save();
+
+                    if (customCheckout) {
+                        checkout(runContext, call, paths, false, localMonitor);
+                    }
+                    monitor.addCheckout(localMonitor.getCheckoutDuration());
+
+                    // submodules are resolved against the real remote, so relative submodule URLs keep working
+                    cloneSubmodules(runContext, call, paths);
+
+                    return output(runContext, call, monitor, lease.bytesReceived());
+                }
+            }
+        }
+
+        if (filter != null) {
+            FilterSpec filterSpec = FilterSpec.fromFilterLine(filter);
+            cloneCommand = authentified(cloneCommand, runContext, transport -> transport.setFilterSpec(filterSpec));
+
+            logger.info("Start cloning from '{}' with filter '{}'", url, filter);
+        } else {
+            cloneCommand = authentified(cloneCommand, runContext);
+
+            logger.info("Start cloning from '{}'", url);
+        }
+
+        CloneProgressMonitor monitor = new CloneProgressMonitor();
+        try (Git call = cloneCommand.setProgressMonitor(monitor).call()) {
+            monitor.endFetch();
+            long bytesReceived = CloneProgressMonitor.packSize(call.getRepository().getDirectory().toPath());
+
+            if (filter != null) {
+                MissingObjectsFetcher.configurePromisor(call, Constants.DEFAULT_REMOTE_NAME, filter);
+            }
+
+            if (customCheckout) {
+                checkout(runContext, call, paths, filter != null, monitor);
+            }
+
+            cloneSubmodules(runContext, call, paths);
+
+            return output(runContext, call, monitor, bytesReceived);
+        }
+    }
+
+    /**
+     * Initializes the repository with the branches and tags of a bundle stored in internal storage, without checking it out.
+     * The bundle is streamed from internal storage, so it's never written next to, or into, the clone directory.
+     */
+    private void seed(RunContext runContext, Path path, String bundle) throws Exception {
+        Logger logger = runContext.logger();
+
+        logger.info("Start cloning from bundle '{}'", bundle);
+
+        try (Git git = Git.init().setDirectory(path.toFile()).setBare(Boolean.TRUE.equals(this.bare)).call();
+             InputStream inputStream = runContext.uriToInputStream(URI.create(bundle));
+             Transport transport = new TransportBundleStream(git.getRepository(), new URIish(bundle), inputStream)) {
+            transport.fetch(NullProgressMonitor.INSTANCE, List.of(
+                new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*"),
+                new RefSpec("+" + Constants.R_TAGS + "*:" + Constants.R_TAGS + "*")
+            ));
+
+            logger.debug("Cloned {} bytes from bundle '{}'", CloneProgressMonitor.packSize(git.getRepository().getDirectory().toPath()), bundle);
         }
+    }
+
+    private Clone.Output update(RunContext runContext, Path path, String url, List<String> paths, String filter) throws Exception {
+        Logger logger = runContext.logger();
+
+        try (Git git = Git.open(path.toFile())) {
+            Repository repository = git.getRepository();
+            long initialPackSize = CloneProgressMonitor.packSize(repository.getDirectory().toPath());
 
-        cloneCommand = authentified(cloneCommand, runContext);
+            StoredConfig config = repository.getConfig();
+            config.setString("remote", Constants.DEFAULT_REMOTE_NAME, "url", url);
+            config.save();
 
-        logger.info("Start cloning from '{}'", url);
+            // without an explicit branch, the remote default branch is followed
+            String branch = this.branch == null ? remoteDefaultBranch(runContext, url) : runContext.render(this.branch);
+            String remoteRef = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + (branch == null ? Constants.HEAD : branch);
+            FetchCommand fetchCommand = git.fetch()
+                .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                .setRefSpecs(new RefSpec("+" + (branch == null ? Constants.HEAD : Constants.R_HEADS + branch) + ":" + remoteRef));
 
-        try (Git call = cloneCommand.call()) {
-            return Output.builder()
-                .directory(call.getRepository().getDirectory().getParent())
-                .build();
+            if (this.depth != null) {
+                fetchCommand.setDepth(this.depth);
+            }
+
+            if (this.fetchTags != null) {
+                fetchCommand.setTagOpt(this.fetchTags ? TagOpt.FETCH_TAGS : TagOpt.NO_TAGS);
+            }
+
+            boolean partialClone = filter != null || config.getBoolean("remote", Constants.DEFAULT_REMOTE_NAME, "promisor", false);
+            if (filter != null) {
+                FilterSpec filterSpec = FilterSpec.fromFilterLine(filter);
+                fetchCommand = authentified(fetchCommand, runContext, transport -> transport.setFilterSpec(filterSpec));
+                MissingObjectsFetcher.configurePromisor(git, Constants.DEFAULT_REMOTE_NAME, filter);
+            } else {
+                fetchCommand = authentified(fetchCommand, runContext);
+            }
+
+            logger.info("Start updating '{}' from '{}'", path, url);
+
+            CloneProgressMonitor monitor = new CloneProgressMonitor();
+            fetchCommand.setProgressMonitor(monitor).call();
+            monitor.endFetch();
+            long bytesReceived = Math.max(0L, CloneProgressMonitor.packSize(repository.getDirectory().toPath()) - initialPackSize);
+
+            ObjectId target = repository.resolve(remoteRef);
+            if (branch != null) {
+                RefUpdate branchUpdate = repository.updateRef(Constants.R_HEADS + branch);
+                branchUpdate.setNewObjectId(target);
+                branchUpdate.forceUpdate();
+
+                repository.updateRef(Constants.HEAD).link(Constants.R_HEADS + branch);
+            } else {
+                // the remote doesn't advertise which branch its HEAD points to
+                RefUpdate headUpdate = repository.updateRef(Constants.HEAD, true);
+                headUpdate.setNewObjectId(target);
+                headUpdate.forceUpdate();
+            }
+
+            if (!repository.isBare()) {
+                checkout(runContext, git, paths, partialClone, monitor);
+            }
+            cloneSubmodules(runContext, git, paths);
+
+            return output(runContext, git, monitor, bytesReceived);
+        }
+    }
+
+    /**
+     * @return the branch the HEAD of the remote points to, or null if the remote doesn't tell.
+     */
+    private String remoteDefaultBranch(RunContext runContext, String url) throws Exception {
+        Ref head = authentified(Git.lsRemoteRepository().setRemote(url), runContext).callAsMap().get(Constants.HEAD);
+        if (head == null || !head.isSymbolic() || !head.getTarget().getName().startsWith(Constants.R_HEADS)) {
+            return null;
+        }
+
+        return Repository.shortenRefName(head.getTarget().getName());
+    }
+
+    private void checkout(RunContext runContext, Git git, List<String> paths, boolean partialClone, CloneProgressMonitor monitor) throws Exception {
+        Repository repository = git.getRepository();
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head == null) {
+            // empty repository, nothing to check out
+            return;
         }
+
+        RevCommit commit = repository.parseCommit(head);
+        if (partialClone) {
+            int fetched = new MissingObjectsFetcher(
+                git,
+                Constants.DEFAULT_REMOTE_NAME,
+                (command, transportConfigCallback) -> authentified(command, runContext, transportConfigCallback),
+                monitor
+            ).fetchMissing(commit.getTree(), WorkingTreeCheckout.cone(paths));
+            runContext.logger().debug("Fetched {} missing objects for checkout", fetched);
+        }
+
+        Instant checkoutStart = Instant.now();
+        int written = new WorkingTreeCheckout(repository, paths, checkoutThreads()).checkout(commit.getTree());
+        monitor.addCheckout(Duration.between(checkoutStart, Instant.now()));
+        runContext.logger().debug("Checked out {} files", written);
+    }
+
+    private int checkoutThreads() {
+        return Boolean.TRUE.equals(this.parallelCheckout) ? Runtime.getRuntime().availableProcessors() : 1;
+    }
+
+    private void cloneSubmodules(RunContext runContext, Git git, List<String> paths) throws Exception {
+        if (!Boolean.TRUE.equals(this.cloneSubmodules) || git.getRepository().isBare()) {
+            return;
+        }
+
+        int cloned = new SubmoduleCloner(
+            SUBMODULES_PARALLELISM,
+            this.depth,
+            !Boolean.FALSE.equals(this.recursiveSubmodules),
+            WorkingTreeCheckout.cone(paths),
+            checkoutThreads(),
+            command -> authentified(command, runContext),
+            runContext.logger()
+        ).cloneSubmodules(git.getRepository());
+        runContext.logger().debug("Cloned {} submodules", cloned);
+    }
+
+    private Clone.Output output(RunContext runContext, Git git, CloneProgressMonitor monitor, long bytesReceived) throws IOException {
+        runContext.metric(Counter.of("objects.received", monitor.getObjectsReceived()));
+        runContext.metric(Counter.of("bytes.received", bytesReceived));
+        runContext.metric(Timer.of("negotiation.duration", monitor.getNegotiationDuration()));
+        runContext.metric(Timer.of("receive.duration", monitor.getReceiveDuration()));
+        runContext.metric(Timer.of("resolve.duration", monitor.getResolveDuration()));
+        runContext.metric(Timer.of("checkout.duration", monitor.getCheckoutDuration()));
+
+        Repository repository = git.getRepository();
+        Output.OutputBuilder output = Output.builder()
+            .directory((repository.isBare() ? repository.getDirectory() : repository.getWorkTree()).getPath())
+            .branch(repository.getFullBranch())
+            .objectsReceived(monitor.getObjectsReceived())
+            .bytesReceived(bytesReceived)
+            .negotiationDuration(monitor.getNegotiationDuration())
+            .receiveDuration(monitor.getReceiveDuration())
+            .resolveDuration(monitor.getResolveDuration())
+            .checkoutDuration(monitor.getCheckoutDuration());
+
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head != null) {
+            RevCommit commit = repository.parseCommit(head);
+            output
+                .commitId(commit.getName())
+                .treeId(commit.getTree().getName())
+                .commitDate(Instant.ofEpochSecond(commit.getCommitTime()));
+        }
+
+        return output.build();
     }
 
     @Override
@@ -152,5 +546,56 @@ public class Clone extends AbstractGitTask implements RunnableTask<Clone.Output>
             title = "The path where the repository is cloned"
         )
         private final String directory;
+
+        @Schema(
+            title = "The id of the commit checked out"
+        )
+        private final String commitId;
+
+        @Schema(
+            title = "The id of the root tree of the commit checked out"
+        )
+        private final String treeId;
+
+        @Schema(
+            title = "The full name of the branch checked out, e.g. `refs/heads/main`"
+        )
+        private final String branch;
+
+        @Schema(
+            title = "The commit date of the commit checked out"
+        )
+        private final Instant commitDate;
+
+        @Schema(
+            title = "The number of objects received from the remote"
+        )
+        private final Long objectsReceived;
+
+        @Schema(
+            title = "The size in bytes of the packs received from the remote",
+            description = "With `mirrorCache`, this is what the mirror received when it was updated, the local clone from the mirror not going over the network."
+        )
+        private final Long bytesReceived;
+
+        @Schema(
+            title = "The time spent connecting, reading the advertised refs and negotiating with the remote until it starts sending objects"
+        )
+        private final Duration negotiationDuration;
+
+        @Schema(
+            title = "The time spent receiving objects"
+        )
+        private final Duration receiveDuration;
+
+        @Schema(
+            title = "The time spent resolving deltas and indexing the received packs"
+        )
+        private final Duration resolveDuration;
+
+        @Schema(
+            title = "The time spent writing the working tree"
+        )
+        private final Duration checkoutDuration;
     }
 }
@@ -113,6 +113,13 @@ public class Push extends AbstractGitTask implements RunnableTask<Push.Output>,
 
     private Object inputFiles;
 
+    @Schema(
+        title = "Partial clone filter, to avoid downloading objects that are not needed.",
+        description = "Supported filters are `blob:none`, `blob:limit=<n>` and `tree:0`. See the `Clone` task for more details."
+    )
+    @PluginProperty(dynamic = true)
+    private String filter;
+
     @Schema(
         title = "Patterns of files to add to the commit. Default is `.` which means all files.",
         description = "A directory name (e.g. dir to add dir/file1 and dir/file2) can also be given to add all files in the directory, recursively. Fileglobs (e.g. *.c) are not yet supported."
@@ -149,12 +156,16 @@ public class Push extends AbstractGitTask implements RunnableTask<Push.Output>,
 
             Clone cloneHead = Clone.builder()
                 .depth(1)
+                .singleBranch(true)
+                .fetchTags(false)
                 .url(this.url)
                 .directory(this.directory)
                 .username(this.username)
                 .password(this.password)
                 .privateKey(this.privateKey)
                 .passphrase(this.passphrase)
+                .filter(this.filter)
+                .parallelCheckout(true)
                 .build();
 
             if (branchExists) {
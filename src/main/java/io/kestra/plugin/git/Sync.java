@@ -3,36 +3,73 @@ package io.kestra.plugin.git;
 import io.kestra.core.models.annotations.Example;
 import io.kestra.core.models.annotations.Plugin;
 import io.kestra.core.models.annotations.PluginProperty;
-import io.kestra.core.models.flows.FlowWithSource;
+import io.kestra.core.models.executions.metrics.Counter;
+import io.kestra.core.models.executions.metrics.Timer;
 import io.kestra.core.models.tasks.RunnableTask;
-import io.kestra.core.models.tasks.VoidOutput;
+import io.kestra.core.models.validations.ModelValidator;
 import io.kestra.core.repositories.FlowRepositoryInterface;
 import io.kestra.core.runners.RunContext;
+import io.kestra.core.serializers.YamlFlowParser;
 import io.kestra.core.services.FlowService;
+import io.kestra.core.storages.FileAttributes;
 import io.kestra.core.storages.StorageInterface;
 import io.kestra.core.utils.KestraIgnore;
+import io.kestra.core.utils.Rethrow;
+import io.kestra.plugin.git.services.BoundedExecutor;
+import io.kestra.plugin.git.services.ChangeCounts;
+import io.kestra.plugin.git.services.ChangeLogger;
+import io.kestra.plugin.git.services.FlowReconciler;
+import io.kestra.plugin.git.services.MissingObjectsFetcher;
+import io.kestra.plugin.git.services.SyncSource;
+import io.kestra.plugin.git.services.SyncLocks;
+import io.kestra.plugin.git.services.SyncState;
+import io.kestra.plugin.git.services.TreeSyncSource;
+import io.kestra.plugin.git.services.WorkingTreeSyncSource;
 import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.experimental.SuperBuilder;
-import org.apache.commons.io.FileUtils;
+import lombok.extern.jackson.Jacksonized;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static io.kestra.core.utils.Rethrow.*;
 
@@ -46,7 +83,8 @@ import static io.kestra.core.utils.Rethrow.*;
     description = "Files located in `gitDirectory` will be synced with namespace files under `namespaceFilesDirectory` folder. " +
         "Any file not present in the `gitDirectory` but present in `namespaceFilesDirectory` will be deleted from namespace files to ensure that Git remains a single source of truth for your workflow and application code. " +
         "If you don't want some files from Git to be synced, you can add them to a `.kestraignore` file at the root of your `gitDirectory` folder — that file works the same way as `.gitignore`." +
-        "If there is a `_flows` folder under the `gitDirectory` folder, any file within it will be parsed and imported as a flow under the namespace declared in the task (namespace defined in the flow code might get overwritten if it's not equal to the namespace or child namespace defined in this task)."
+        "If there is a `_flows` folder under the `gitDirectory` folder, any file within it or its subdirectories will be parsed and imported as a flow under the namespace declared in the task (namespace defined in the flow code might get overwritten if it's not equal to the namespace or child namespace defined in this task). " +
+        "Several Git directories can be synchronized to several namespaces from a single clone with `targets`."
 )
 @Plugin(
     examples = {
@@ -77,10 +115,11 @@ import static io.kestra.core.utils.Rethrow.*;
         )
     }
 )
-public class Sync extends AbstractGitTask implements RunnableTask<VoidOutput> {
+public class Sync extends AbstractGitTask implements RunnableTask<Sync.Output> {
     public static final String FLOWS_DIRECTORY = "_flows";
     public static final Pattern NAMESPACE_FINDER_PATTERN = Pattern.compile("(?m)^namespace: (.*)$");
     public static final Pattern FLOW_ID_FINDER_PATTERN = Pattern.compile("(?m)^id: (.*)$");
+    private static final String CLONE_DIRECTORY = "repository";
 
     @Schema(
         title = "Git directory to synchronize Namespace Files from. If not specified, all files from the Git repository will be synchronized."
@@ -96,12 +135,85 @@ public class Sync extends AbstractGitTask implements RunnableTask<VoidOutput> {
 
     private String branch;
 
+    @Schema(
+        title = "Targets to synchronize from the same clone, each one mapping a Git directory to a namespace and its namespace files directory.",
+        description = "When set, `gitDirectory` and `namespaceFilesDirectory` are ignored. The repository is cloned once and targets are " +
+            "synchronized concurrently. Target namespaces must be the namespace of the flow or one of its child namespaces. " +
+            "Two targets can't share the same namespace files directory of a namespace, and when `flowDirectoriesAsNamespaces` is enabled, " +
+            "a target namespace can't be a child of another target namespace."
+    )
+    @PluginProperty
+    private List<Target> targets;
+
+    @Schema(
+        title = "Whether subdirectories of the `_flows` folder map to child namespaces.",
+        description = "Flows may be organized in subdirectories of the `_flows` folder. When enabled, a flow in `_flows/a/b` is imported " +
+            "in the `<namespace>.a.b` namespace, and flows of child namespaces that are no longer in Git are deleted too. " +
+            "Otherwise, subdirectories only organize files and flows are imported in the task namespace."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean flowDirectoriesAsNamespaces = false;
+
     @Schema(
         title = "Whether to clone submodules."
     )
     @PluginProperty
     private Boolean cloneSubmodules;
 
+    @Schema(
+        title = "Partial clone filter, to avoid downloading objects that are not needed.",
+        description = "Supported filters are `blob:none`, `blob:limit=<n>` and `tree:0`. See the `Clone` task for more details."
+    )
+    @PluginProperty(dynamic = true)
+    private String filter;
+
+    @Schema(
+        title = "The URI in Kestra's internal storage of a Git bundle to seed the repository from.",
+        description = "Only the objects missing from the bundle are then fetched from `url`. See the `Clone` task for more details."
+    )
+    @PluginProperty(dynamic = true)
+    private String bundle;
+
+    @Schema(
+        title = "Whether to only synchronize what changed in Git since the last synchronized commit.",
+        description = "The last synchronized commit is recorded for each target namespace and directory. When enabled, only the files added, modified or deleted " +
+            "in Git since that commit are applied, and flows are only synchronized if the flows directory changed. " +
+            "Namespace files or flows modified outside of Git are therefore not reverted until the corresponding files change in Git; " +
+            "the whole tree is synchronized when no previous commit is known. " +
+            "The last synchronized commit is only recorded when enabled, in internal storage next to the namespace files rather than among them. " +
+            "The remote branch head is listed first, and the repository isn't even cloned when it still points to the last synchronized commit."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean incremental = false;
+
+    @Schema(
+        title = "The maximum number of concurrent operations, such as flow parsing and imports or calls to the internal storage for namespace files.",
+        description = "Defaults to the number of available processors."
+    )
+    @PluginProperty
+    @Min(1)
+    private Integer parallelism;
+
+    @Schema(
+        title = "Whether to synchronize directly from Git objects, without checking out any file.",
+        description = "The repository is cloned bare and its files are streamed from the Git object database into namespace files, " +
+            "which avoids writing them to disk and reading them back. Submodules are not synchronized in this mode."
+    )
+    @PluginProperty
+    @Builder.Default
+    private Boolean bare = false;
+
+    @Schema(
+        title = "How changes are logged.",
+        description = "`FULL` logs every change. `SUMMARY` only logs the first " + ChangeLogger.SAMPLE_SIZE + " changes and a summary, " +
+            "and writes the full list of changes to an ION file in internal storage, available as the `diff` output."
+    )
+    @PluginProperty
+    @Builder.Default
+    private LogMode logMode = LogMode.FULL;
+
     @Schema(
         title = "If true, the task will only display modifications without syncing any files yet. If false (default), all namespace files and flows will be overwritten based on the state in Git."
     )
@@ -109,117 +221,243 @@ public class Sync extends AbstractGitTask implements RunnableTask<VoidOutput> {
     private Boolean dryRun;
 
     @Override
-    public VoidOutput run(RunContext runContext) throws Exception {
-        Logger logger = runContext.logger();
+    public Output run(RunContext runContext) throws Exception {
+        List<SyncTarget> targets = targets(runContext);
         Map<String, String> flowProps = (Map<String, String>) runContext.getVariables().get("flow");
-        String namespace = flowProps.get("namespace");
-        String tenantId = flowProps.get("tenantId");
+        String url = runContext.render(this.url);
+        String branch = runContext.render(this.branch);
+        Map<String, String> sourceByLockKey = new LinkedHashMap<>();
+        targets.forEach(target -> sourceByLockKey.put(
+            SyncLocks.key(flowProps.get("tenantId"), target.namespace(), target.namespaceFilesDirectory()),
+            SyncLocks.source(url, branch, target.gitDirectory())
+        ));
+
+        // overlapping synchronizations of the same targets on this worker are serialized, a dry run doesn't write anything
         boolean dryRun = this.dryRun != null && this.dryRun;
+        try (SyncLocks.Lease lease = dryRun ? SyncLocks.none() : SyncLocks.acquire(
+            sourceByLockKey,
+            () -> runContext.logger().info("Waiting for a concurrent synchronization of the same targets to finish")
+        )) {
+            if (lease.waited()) {
+                Optional<ObjectId> synchronizedCommit = lease.lastSynchronized();
+                if (synchronizedCommit.isPresent() && synchronizedCommit.get().equals(remoteHead(runContext))) {
+                    runContext.logger().info("A concurrent synchronization already synchronized commit {} and the branch head didn't move, nothing to synchronize", synchronizedCommit.get().name());
+                    // still synchronized, later waiting synchronizations can reuse it too
+                    lease.synchronizedCommit(synchronizedCommit.get());
+                    return output(runContext, Output.builder().commitId(synchronizedCommit.get().name()));
+                }
+            }
+
+            Output output = run(runContext, targets);
+            if (!dryRun && output.getCommitId() != null) {
+                lease.synchronizedCommit(ObjectId.fromString(output.getCommitId()));
+            }
+
+            return output;
+        }
+    }
+
+    private Output run(RunContext runContext, List<SyncTarget> targets) throws Exception {
+        List<Optional<ObjectId>> lastCommits = new ArrayList<>();
+        if (Boolean.TRUE.equals(this.incremental)) {
+            for (SyncTarget target : targets) {
+                lastCommits.add(target.syncState().lastCommit());
+            }
+        }
+
+        Optional<ObjectId> lastCommit = lastCommits.isEmpty() ? Optional.empty() : lastCommits.get(0);
+        boolean upToDate = lastCommit.isPresent() &&
+            lastCommits.stream().allMatch(lastCommit::equals) &&
+            lastCommit.get().equals(remoteHead(runContext));
+        if (upToDate) {
+            runContext.logger().info("Branch head is still at the last synchronized commit {}, nothing to synchronize", lastCommit.get().name());
+            return output(runContext, Output.builder().commitId(lastCommit.get().name()));
+        }
 
+        List<String> gitDirectories = targets.stream().map(SyncTarget::gitDirectory).toList();
         Clone clone = Clone.builder()
             .depth(1)
+            .singleBranch(true)
+            .fetchTags(false)
             .url(this.url)
             .branch(this.branch)
             .username(this.username)
             .password(this.password)
             .privateKey(this.privateKey)
             .passphrase(this.passphrase)
+            .filter(this.filter)
+            .parallelCheckout(true)
+            .bundle(this.bundle)
+            .cloneSubmodules(this.cloneSubmodules)
+            .bare(this.bare)
+            // files of the task, such as the diff file, must not end up in the working tree
+            .directory(CLONE_DIRECTORY)
+            // only the synchronized directories need to be written to disk
+            .paths(gitDirectories.contains(null) ? null : gitDirectories)
             .build();
 
-        clone.run(runContext);
+        long cloneStart = System.nanoTime();
+        Clone.Output cloneOutput = clone.run(runContext);
+        // an empty repository has no commit to synchronize from
+        ObjectId head = cloneOutput.getCommitId() == null ? null : ObjectId.fromString(cloneOutput.getCommitId());
 
         // we should synchronize git flows with current namespace flows
-        Path absoluteGitDirPath = runContext.resolve(Optional.ofNullable(runContext.render(this.gitDirectory)).map(Path::of).orElse(null));
-        Path flowsDirectoryBasePath = absoluteGitDirPath.resolve(FLOWS_DIRECTORY);
-        KestraIgnore kestraIgnore = new KestraIgnore(absoluteGitDirPath);
+        int parallelism = this.parallelism == null ? Runtime.getRuntime().availableProcessors() : this.parallelism;
+        Path diffFile = this.logMode == LogMode.SUMMARY ? runContext.tempFile(".ion") : null;
+        Output.OutputBuilder output = Output.builder().commitId(head == null ? null : head.name());
+        List<SyncSource> sources = new ArrayList<>();
+        try (
+            BoundedExecutor executor = new BoundedExecutor(parallelism);
+            ChangeLogger changeLogger = diffFile == null ? ChangeLogger.full(runContext.logger()) : ChangeLogger.summary(runContext.logger(), diffFile)
+        ) {
+            // sources are opened and changes are computed one by one as they may have to fetch missing objects or last
+            // synchronized commits in the shared repository
+            List<TargetSynchronization> synchronizations = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                SyncTarget target = targets.get(i);
+                SyncSource source = source(runContext, cloneOutput, head, target.gitDirectory());
+                sources.add(source);
+                synchronizations.add(new TargetSynchronization(
+                    target,
+                    source,
+                    changes(runContext, cloneOutput, head, target, lastCommits.isEmpty() ? Optional.empty() : lastCommits.get(i), source),
+                    targets.size() == 1 ? changeLogger : changeLogger.forNamespace(target.namespace())
+                ));
+            }
+            output.cloneDuration(Duration.ofNanos(System.nanoTime() - cloneStart));
 
-        // synchronize flows directory to namespace flows
-        File flowsDirectory = flowsDirectoryBasePath.toFile();
-        if (flowsDirectory.exists()) {
-            FlowRepositoryInterface flowRepository = runContext.getApplicationContext().getBean(FlowRepositoryInterface.class);
-            FlowService flowService = runContext.getApplicationContext().getBean(FlowService.class);
-
-            Set<String> flowIdsImported = Arrays.stream(flowsDirectory.listFiles())
-                .map(File::toPath)
-                .filter(filePath -> !kestraIgnore.isIgnoredFile(absoluteGitDirPath.relativize(filePath).toString(), true))
-                .map(throwFunction(Files::readAllBytes))
-                .map(String::new)
-                .map(flowSource -> {
-                    Matcher matcher = NAMESPACE_FINDER_PATTERN.matcher(flowSource);
-                    matcher.find();
-                    String previousNamespace = matcher.group(1);
-                    if (previousNamespace.startsWith(namespace + ".")) {
-                        return Map.entry(previousNamespace, flowSource);
-                    }
+            // every target is walked and compared before anything is applied to any of them, so that an invalid flow
+            // leaves all targets untouched; phases are timed as a whole as targets go through them concurrently
+            long walkStart = System.nanoTime();
+            forEachTarget(synchronizations, parallelism, synchronization -> walk(runContext, synchronization));
+            long diffStart = System.nanoTime();
+            forEachTarget(synchronizations, parallelism, synchronization -> compare(runContext, synchronization, executor));
+            long applyStart = System.nanoTime();
+            forEachTarget(synchronizations, parallelism, synchronization -> apply(runContext, head, synchronization, executor));
+            long applyEnd = System.nanoTime();
+            changeLogger.summarize();
 
-                    return Map.entry(namespace, matcher.replaceFirst("namespace: " + namespace));
-                })
-                .map(flowSourceByNamespace -> {
-                    boolean isAddition;
-                    FlowWithSource flowWithSource;
-                    String flowSource = flowSourceByNamespace.getValue();
-                    if (dryRun) {
-                        Matcher matcher = FLOW_ID_FINDER_PATTERN.matcher(flowSource);
-                        matcher.find();
-                        String flowId = matcher.group(1).trim();
-                        isAddition = flowRepository.findById(tenantId, flowSourceByNamespace.getKey(), flowId).isEmpty();
-                        flowWithSource = FlowWithSource.builder().source(flowSource).id(flowId).build();
-                    } else {
-                        flowWithSource = flowService.importFlow(tenantId, flowSource);
-                        isAddition = flowWithSource.getRevision() == 1;
-                    }
+            output
+                .flowsAdded(synchronizations.stream().mapToInt(synchronization -> synchronization.flowCounts.added()).sum())
+                .flowsUpdated(synchronizations.stream().mapToInt(synchronization -> synchronization.flowCounts.updated()).sum())
+                .flowsUnchanged(synchronizations.stream().mapToInt(synchronization -> synchronization.flowCounts.unchanged()).sum())
+                .flowsDeleted(synchronizations.stream().mapToInt(synchronization -> synchronization.flowCounts.deleted()).sum())
+                .namespaceFilesAdded(synchronizations.stream().mapToInt(synchronization -> synchronization.namespaceFileCounts.added()).sum())
+                .namespaceFilesUpdated(synchronizations.stream().mapToInt(synchronization -> synchronization.namespaceFileCounts.updated()).sum())
+                .namespaceFilesUnchanged(synchronizations.stream().mapToInt(synchronization -> synchronization.namespaceFileCounts.unchanged()).sum())
+                .namespaceFilesDeleted(synchronizations.stream().mapToInt(synchronization -> synchronization.namespaceFileCounts.deleted()).sum())
+                .bytesUploaded(synchronizations.stream().mapToLong(synchronization -> synchronization.bytesUploaded).sum())
+                .walkDuration(Duration.ofNanos(diffStart - walkStart))
+                .diffDuration(Duration.ofNanos(applyStart - diffStart))
+                .applyDuration(Duration.ofNanos(applyEnd - applyStart));
+        } finally {
+            sources.forEach(SyncSource::close);
+        }
 
-                    if (isAddition) {
-                        logAddition(logger, "/_flows/" + flowWithSource.getId() + ".yml");
-                    } else {
-                        logUpdate(logger, "/_flows/" + flowWithSource.getId() + ".yml");
-                    }
+        if (diffFile != null) {
+            output.diff(runContext.putTempFile(diffFile.toFile()));
+        }
 
-                    return flowWithSource;
-                })
-                .map(FlowWithSource::getId)
-                .collect(Collectors.toSet());
+        return output(runContext, output);
+    }
 
-            // prevent self deletion
-            flowIdsImported.add(flowProps.get("id"));
+    /**
+     * @return the rendered targets, the task properties making up the only target when no targets are set.
+     */
+    private List<SyncTarget> targets(RunContext runContext) throws Exception {
+        Map<String, String> flowProps = (Map<String, String>) runContext.getVariables().get("flow");
+        String tenantId = flowProps.get("tenantId");
+        StorageInterface storage = runContext.getApplicationContext().getBean(StorageInterface.class);
+        String url = runContext.render(this.url);
+        String branch = runContext.render(this.branch);
 
-            flowRepository.findByNamespace(tenantId, namespace).stream()
-                .filter(flow -> !flowIdsImported.contains(flow.getId()))
-                .forEach(flow -> {
-                    if (!dryRun) {
-                        flowRepository.delete(flow);
+        List<Target> targets = this.targets == null || this.targets.isEmpty()
+            ? List.of(Target.builder().gitDirectory(this.gitDirectory).namespaceFilesDirectory(this.namespaceFilesDirectory).build())
+            : this.targets;
+
+        String flowNamespace = flowProps.get("namespace");
+        List<SyncTarget> syncTargets = new ArrayList<>();
+        Set<String> destinations = new HashSet<>();
+        for (Target target : targets) {
+            String gitDirectory = runContext.render(target.getGitDirectory());
+            String namespace = target.getNamespace() == null ? flowNamespace : runContext.render(target.getNamespace());
+            String namespaceFilesDirectory = target.getNamespaceFilesDirectory() == null ? null : runContext.render(target.getNamespaceFilesDirectory());
+            // like flows, targets can only write to the namespace of the flow or to its child namespaces
+            if (!namespace.equals(flowNamespace) && !namespace.startsWith(flowNamespace + ".")) {
+                throw new IllegalArgumentException("Target namespace '" + namespace + "' is neither the namespace of the flow '" + flowNamespace + "' nor one of its child namespaces");
+            }
+            if (!destinations.add(namespace + "/" + StringUtils.strip(Objects.toString(namespaceFilesDirectory, ""), "/"))) {
+                throw new IllegalArgumentException("Several targets synchronize to the same namespace files directory of namespace '" + namespace + "'");
+            }
+            // flows of a child namespace mapped from a directory would be deleted by the target of its parent namespace
+            if (Boolean.TRUE.equals(this.flowDirectoriesAsNamespaces)) {
+                for (SyncTarget other : syncTargets) {
+                    if (namespace.startsWith(other.namespace() + ".") || other.namespace().startsWith(namespace + ".")) {
+                        throw new IllegalArgumentException("Targets can't synchronize both namespace '" + other.namespace() + "' and namespace '" + namespace +
+                            "' when `flowDirectoriesAsNamespaces` is enabled, as one is a child of the other");
                     }
-                    logDeletion(logger, "/_flows/" + flow.getId() + ".yml");
-                });
+                }
+            }
+
+            SyncState syncState = new SyncState(storage, tenantId, namespace, url, branch, gitDirectory, namespaceFilesDirectory);
+            syncTargets.add(new SyncTarget(gitDirectory, namespace, namespaceFilesDirectory, syncState));
+        }
+
+        return syncTargets;
+    }
+
+    private static Output output(RunContext runContext, Output.OutputBuilder builder) {
+        Output output = builder.build();
+
+        runContext.metric(Counter.of("flows.added", output.getFlowsAdded()));
+        runContext.metric(Counter.of("flows.updated", output.getFlowsUpdated()));
+        runContext.metric(Counter.of("flows.unchanged", output.getFlowsUnchanged()));
+        runContext.metric(Counter.of("flows.deleted", output.getFlowsDeleted()));
+        runContext.metric(Counter.of("namespace.files.added", output.getNamespaceFilesAdded()));
+        runContext.metric(Counter.of("namespace.files.updated", output.getNamespaceFilesUpdated()));
+        runContext.metric(Counter.of("namespace.files.unchanged", output.getNamespaceFilesUnchanged()));
+        runContext.metric(Counter.of("namespace.files.deleted", output.getNamespaceFilesDeleted()));
+        runContext.metric(Counter.of("bytes.uploaded", output.getBytesUploaded()));
+        runContext.metric(Timer.of("clone.duration", output.getCloneDuration()));
+        runContext.metric(Timer.of("walk.duration", output.getWalkDuration()));
+        runContext.metric(Timer.of("diff.duration", output.getDiffDuration()));
+        runContext.metric(Timer.of("apply.duration", output.getApplyDuration()));
+
+        return output;
+    }
+
+    /**
+     * Runs a phase on each target, concurrently when there are several of them. Targets have their own executor, a
+     * target waiting for its operations must not hold a permit they need.
+     */
+    private static void forEachTarget(List<TargetSynchronization> synchronizations, int parallelism, Rethrow.ConsumerChecked<TargetSynchronization, Exception> phase) throws Exception {
+        if (synchronizations.size() == 1) {
+            phase.accept(synchronizations.get(0));
+            return;
         }
 
-        Map<String, String> gitContentByFilePath;
-        try (Stream<Path> walk = Files.walk(absoluteGitDirPath)) {
-            List<Path> list = walk
-                .filter(path -> {
-                    String pathStr = path.toString();
-                    return !pathStr.equals(absoluteGitDirPath.toString()) &&
-                        !pathStr.contains("/.git/") && !pathStr.endsWith("/.git") &&
-                        !pathStr.contains("/" + FLOWS_DIRECTORY + "/") && !pathStr.endsWith("/" + FLOWS_DIRECTORY) &&
-                        !kestraIgnore.isIgnoredFile(pathStr, true);
-                })
-                .toList();
-            gitContentByFilePath = list.stream()
-                .map(Path::toFile)
-                .collect(HashMap::new, throwBiConsumer((map, file) -> {
-                    String relativePath = absoluteGitDirPath.relativize(file.toPath()).toString();
-                    map.put(
-                        "/" + (file.isDirectory() ? relativePath + "/" : relativePath),
-                        file.isDirectory() ? null : FileUtils.readFileToString(file, "UTF-8")
-                    );
-                }), HashMap::putAll);
+        try (BoundedExecutor targetExecutor = new BoundedExecutor(Math.min(parallelism, synchronizations.size()))) {
+            targetExecutor.runAll(synchronizations, phase);
         }
+    }
 
+    /**
+     * Lists the flow files and namespace files in Git, and the namespace files stored for the target.
+     */
+    private void walk(RunContext runContext, TargetSynchronization synchronization) throws Exception {
+        Map<String, String> flowProps = (Map<String, String>) runContext.getVariables().get("flow");
+        String tenantId = flowProps.get("tenantId");
+        String namespaceFilesDirectory = synchronization.target.namespaceFilesDirectory();
+        SyncSource source = synchronization.source;
+        GitChanges changes = synchronization.changes;
         StorageInterface storage = runContext.getApplicationContext().getBean(StorageInterface.class);
-        URI namespaceFilePrefix = URI.create("kestra://" + storage.namespaceFilePrefix(namespace) + "/");
-        if (this.namespaceFilesDirectory != null) {
-            String renderedNamespaceFilesDirectory = runContext.render(this.namespaceFilesDirectory);
-            renderedNamespaceFilesDirectory = renderedNamespaceFilesDirectory.startsWith("/") ? renderedNamespaceFilesDirectory.substring(1) : renderedNamespaceFilesDirectory;
+
+        Map<String, SyncSource.Content> flowFiles = source.flows();
+        synchronization.flowFiles = flowFiles != null && (changes == null || changes.flowsChanged()) ? flowFiles : null;
+
+        URI namespaceFilePrefix = URI.create("kestra://" + storage.namespaceFilePrefix(synchronization.target.namespace()) + "/");
+        if (namespaceFilesDirectory != null) {
+            String renderedNamespaceFilesDirectory = namespaceFilesDirectory.startsWith("/") ? namespaceFilesDirectory.substring(1) : namespaceFilesDirectory;
             renderedNamespaceFilesDirectory = renderedNamespaceFilesDirectory.endsWith("/") ? renderedNamespaceFilesDirectory : renderedNamespaceFilesDirectory + "/";
             namespaceFilePrefix = namespaceFilePrefix.resolve(renderedNamespaceFilesDirectory);
         }
@@ -232,61 +470,383 @@ public class Sync extends AbstractGitTask implements RunnableTask<VoidOutput> {
                 Function.identity()
             ));
 
-        logger.info("Dry run is {}, {}performing following actions (- for deletions, + for creations, ~ for update or no modification):", dryRun ? "enabled" : "disabled", dryRun ? "not " : "");
-        // perform all required deletions before-hand
-        fullUriByRelativeNsFilesPath.forEach(throwBiConsumer((relativeNsFilePath, uri) -> {
-            if (!gitContentByFilePath.containsKey(relativeNsFilePath)) {
-                logDeletion(logger, relativeNsFilePath);
-                if (!dryRun) {
-                    storage.delete(tenantId, uri);
+        // only paths are collected up front, contents are streamed from their source when compared or uploaded
+        Map<String, SyncSource.Content> gitContentByFilePath;
+        Set<String> deletedPaths;
+        if (changes == null) {
+            gitContentByFilePath = source.namespaceFiles();
+
+            deletedPaths = fullUriByRelativeNsFilesPath.keySet().stream()
+                .filter(path -> !gitContentByFilePath.containsKey(path))
+                .collect(Collectors.toSet());
+        } else {
+            gitContentByFilePath = new HashMap<>();
+            for (String path : changes.upsertedPaths()) {
+                Optional<SyncSource.Content> content = source.file(path);
+                if (content.isEmpty()) {
+                    continue;
+                }
+
+                // parent directories are created along with the file when they don't exist yet
+                for (int slash = path.indexOf('/', 1); slash > 0; slash = path.indexOf('/', slash + 1)) {
+                    String directory = path.substring(0, slash + 1);
+                    if (!fullUriByRelativeNsFilesPath.containsKey(directory)) {
+                        gitContentByFilePath.put(directory, null);
+                    }
+                }
+                gitContentByFilePath.put(path, content.get());
+            }
+
+            deletedPaths = new HashSet<>();
+            for (String path : changes.deletedPaths()) {
+                if (!gitContentByFilePath.containsKey(path) && fullUriByRelativeNsFilesPath.containsKey(path)) {
+                    deletedPaths.add(path);
                 }
+
+                // parent directories are deleted when they are gone from Git too
+                for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+                    String directory = path.substring(0, slash + 1);
+                    if (fullUriByRelativeNsFilesPath.containsKey(directory) && !source.isDirectory(directory)) {
+                        deletedPaths.add(directory);
+                    }
+                }
+            }
+        }
+
+        synchronization.namespaceFilePrefix = finalNamespaceFilePrefix;
+        synchronization.fullUriByRelativeNsFilesPath = fullUriByRelativeNsFilesPath;
+        synchronization.gitContentByFilePath = gitContentByFilePath;
+        synchronization.deletedPaths = deletedPaths;
+    }
+
+    /**
+     * Computes the changes of the target without applying anything: flows are parsed and validated, and namespace files
+     * are compared with their content in Git.
+     *
+     * @throws IllegalArgumentException if at least one flow is invalid.
+     */
+    private void compare(RunContext runContext, TargetSynchronization synchronization, BoundedExecutor executor) throws Exception {
+        Map<String, String> flowProps = (Map<String, String>) runContext.getVariables().get("flow");
+        String namespace = synchronization.target.namespace();
+        String tenantId = flowProps.get("tenantId");
+        StorageInterface storage = runContext.getApplicationContext().getBean(StorageInterface.class);
+
+        // synchronize flows directory to namespace flows
+        if (synchronization.flowFiles != null) {
+            synchronization.flowReconciler = new FlowReconciler(
+                runContext.getApplicationContext().getBean(FlowRepositoryInterface.class),
+                runContext.getApplicationContext().getBean(FlowService.class),
+                runContext.getApplicationContext().getBean(YamlFlowParser.class),
+                runContext.getApplicationContext().getBean(ModelValidator.class),
+                executor,
+                synchronization.changeLogger,
+                tenantId,
+                namespace,
+                // the running flow is never deleted
+                flowProps.get("namespace"),
+                flowProps.get("id"),
+                Boolean.TRUE.equals(this.flowDirectoriesAsNamespaces)
+            );
+            synchronization.flowPlan = synchronization.flowReconciler.plan(synchronization.flowFiles);
+        }
+
+        Map<String, URI> fullUriByRelativeNsFilesPath = synchronization.fullUriByRelativeNsFilesPath;
+        Map<String, SyncSource.Content> gitContentByFilePath = synchronization.gitContentByFilePath;
+
+        synchronization.deletions = synchronization.deletedPaths.stream()
+            .filter(fullUriByRelativeNsFilesPath::containsKey)
+            .sorted()
+            .toList();
+
+        // existing directories are kept and existing files are only written again if their content changed
+        Map<String, SyncState.FileState> previousFileStates = synchronization.target.syncState().files();
+        Map<String, SyncState.FileState> fileStates = new ConcurrentHashMap<>();
+        Set<String> unchangedPaths = ConcurrentHashMap.newKeySet();
+        List<String> existingPaths = gitContentByFilePath.keySet().stream()
+            .filter(fullUriByRelativeNsFilesPath::containsKey)
+            .toList();
+        executor.runAll(existingPaths, path -> {
+            SyncSource.Content content = gitContentByFilePath.get(path);
+            if (content == null) {
+                unchangedPaths.add(path);
+                return;
+            }
+
+            URI uri = fullUriByRelativeNsFilesPath.get(path);
+            ObjectId blobId = content.id();
+            FileAttributes attributes = storage.getAttributes(tenantId, uri);
+            SyncState.FileState previous = previousFileStates.get(path);
+            boolean unchanged = previous != null && previous.size() == attributes.getSize() && previous.lastModified() == attributes.getLastModifiedTime()
+                // the stored file wasn't touched since it was synchronized, so it still holds the indexed blob
+                ? previous.blobId().equals(blobId)
+                // modified outside of Git or never indexed, only then is the stored file read
+                : isUnchanged(storage, tenantId, uri, content);
+            if (unchanged) {
+                unchangedPaths.add(path);
+                fileStates.put(path, new SyncState.FileState(blobId, attributes.getSize(), attributes.getLastModifiedTime()));
             }
-        }));
+        });
 
         // perform all required additions/updates
-        gitContentByFilePath.entrySet().stream()
-            .sorted((e1, e2) -> {
-                int depthComparator = StringUtils.countMatches(e1.getKey(), "/") - StringUtils.countMatches(e2.getKey(), "/");
-                return fullUriByRelativeNsFilesPath.containsKey(e1.getKey())
-                    ? fullUriByRelativeNsFilesPath.containsKey(e2.getKey()) ? depthComparator : 1
-                    : fullUriByRelativeNsFilesPath.containsKey(e2.getKey()) ? -1 : depthComparator;
+        synchronization.writtenPaths = gitContentByFilePath.keySet().stream()
+            .filter(path -> !unchangedPaths.contains(path))
+            .sorted((path1, path2) -> {
+                int depthComparator = StringUtils.countMatches(path1, "/") - StringUtils.countMatches(path2, "/");
+                return fullUriByRelativeNsFilesPath.containsKey(path1)
+                    ? fullUriByRelativeNsFilesPath.containsKey(path2) ? depthComparator : 1
+                    : fullUriByRelativeNsFilesPath.containsKey(path2) ? -1 : depthComparator;
             })
-            .forEach(throwConsumer(contentByFilePath -> {
-                String path = contentByFilePath.getKey();
-                if (fullUriByRelativeNsFilesPath.containsKey(path)) {
-                    logUpdate(logger, path);
-                } else {
-                    logAddition(logger, path);
+            .toList();
+        synchronization.previousFileStates = previousFileStates;
+        synchronization.fileStates = fileStates;
+        synchronization.unchangedPaths = unchangedPaths;
+    }
+
+    /**
+     * Logs the changes of the target and, unless in dry run, applies them.
+     */
+    private void apply(RunContext runContext, ObjectId head, TargetSynchronization synchronization, BoundedExecutor executor) throws Exception {
+        Logger logger = runContext.logger();
+        Map<String, String> flowProps = (Map<String, String>) runContext.getVariables().get("flow");
+        String tenantId = flowProps.get("tenantId");
+        boolean dryRun = this.dryRun != null && this.dryRun;
+        StorageInterface storage = runContext.getApplicationContext().getBean(StorageInterface.class);
+        ChangeLogger changeLogger = synchronization.changeLogger;
+        Map<String, URI> fullUriByRelativeNsFilesPath = synchronization.fullUriByRelativeNsFilesPath;
+        Map<String, SyncSource.Content> gitContentByFilePath = synchronization.gitContentByFilePath;
+        List<String> deletions = synchronization.deletions;
+        List<String> writtenPaths = synchronization.writtenPaths;
+        Set<String> unchangedPaths = synchronization.unchangedPaths;
+        Map<String, SyncState.FileState> fileStates = synchronization.fileStates;
+
+        if (synchronization.flowPlan != null) {
+            synchronization.flowCounts = synchronization.flowReconciler.apply(synchronization.flowPlan, dryRun);
+        }
+
+        logger.info("Dry run is {}, {}performing following actions (- for deletions, + for creations, ~ for updates, = for unchanged files):", dryRun ? "enabled" : "disabled", dryRun ? "not " : "");
+        // perform all required deletions before-hand, children before their parent directory
+        for (String path : deletions) {
+            changeLogger.deletion(path);
+        }
+        if (!dryRun) {
+            for (List<String> level : byDepth(deletions, true)) {
+                executor.runAll(level, path -> storage.delete(tenantId, fullUriByRelativeNsFilesPath.get(path)));
+            }
+        }
+
+        unchangedPaths.stream().sorted().forEach(changeLogger::unchanged);
+        int added = 0;
+        int updated = 0;
+        for (String path : writtenPaths) {
+            if (fullUriByRelativeNsFilesPath.containsKey(path)) {
+                updated++;
+                changeLogger.update(path);
+            } else {
+                added++;
+                changeLogger.addition(path);
+            }
+        }
+
+        AtomicLong bytesUploaded = new AtomicLong();
+
+        if (!dryRun) {
+            // directories are created level by level so that a parent always exists before its children
+            List<String> directories = writtenPaths.stream().filter(path -> gitContentByFilePath.get(path) == null).toList();
+            for (List<String> level : byDepth(directories, false)) {
+                executor.runAll(level, path -> storage.createDirectory(tenantId, synchronization.namespaceFilePrefix.resolve(path.substring(1))));
+            }
+
+            List<String> files = writtenPaths.stream().filter(path -> gitContentByFilePath.get(path) != null).toList();
+            executor.runAll(files, path -> {
+                SyncSource.Content content = gitContentByFilePath.get(path);
+                URI uri = synchronization.namespaceFilePrefix.resolve(path.substring(1));
+                try (CountingInputStream inputStream = new CountingInputStream(content.open())) {
+                    storage.put(tenantId, uri, inputStream);
+                    bytesUploaded.addAndGet(inputStream.getByteCount());
+                }
+
+                FileAttributes attributes = storage.getAttributes(tenantId, uri);
+                fileStates.put(path, new SyncState.FileState(content.id(), attributes.getSize(), attributes.getLastModifiedTime()));
+            });
+
+            // incremental synchronizations only went through the changed paths, the other indexed files are kept
+            Map<String, SyncState.FileState> index = new HashMap<>(synchronization.changes == null ? Map.of() : synchronization.previousFileStates);
+            index.keySet().removeIf(path -> deletions.stream().anyMatch(deleted -> path.equals(deleted) || deleted.endsWith("/") && path.startsWith(deleted)));
+            index.putAll(fileStates);
+            synchronization.target.syncState().saveFiles(index);
+        }
+        logger.info("{} namespace files unchanged", unchangedPaths.size());
+
+        // the marker is only needed, and only written, for incremental synchronizations
+        if (!dryRun && head != null && Boolean.TRUE.equals(this.incremental)) {
+            synchronization.target.syncState().save(head);
+        }
+
+        synchronization.namespaceFileCounts = new ChangeCounts(added, updated, unchangedPaths.size(), deletions.size());
+        synchronization.bytesUploaded = bytesUploaded.get();
+    }
+
+    /**
+     * @return the commit the branch, or the default branch, currently points to on the remote, or null if it can't be
+     * listed, in which case the repository is cloned as usual.
+     */
+    private ObjectId remoteHead(RunContext runContext) {
+        try {
+            String branch = runContext.render(this.branch);
+            Map<String, Ref> refs = authentified(Git.lsRemoteRepository().setRemote(runContext.render(this.url)), runContext).callAsMap();
+            Ref ref = refs.get(branch == null ? Constants.HEAD : Constants.R_HEADS + branch);
+
+            return ref == null ? null : ref.getObjectId();
+        } catch (Exception e) {
+            runContext.logger().debug("Unable to list remote references", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the files to synchronize, read from the working tree or, for bare clones, directly from the tree of the
+     * cloned commit. Objects left out by a partial clone filter are fetched first in the latter case.
+     */
+    private SyncSource source(RunContext runContext, Clone.Output cloneOutput, ObjectId head, String gitDirectory) throws Exception {
+        if (!Boolean.TRUE.equals(this.bare)) {
+            return new WorkingTreeSyncSource(runContext.resolve(gitDirectory == null ? Path.of(CLONE_DIRECTORY) : Path.of(CLONE_DIRECTORY, gitDirectory)));
+        }
+
+        Repository repository = new FileRepositoryBuilder().setGitDir(new File(cloneOutput.getDirectory())).setMustExist(true).build();
+        if (head == null) {
+            // an empty repository, nothing is synchronized
+            return new TreeSyncSource(repository, null, null);
+        }
+
+        RevCommit commit = repository.parseCommit(head);
+        if (this.filter != null) {
+            String prefix = gitDirectory == null ? "" : StringUtils.strip(gitDirectory.replace('\\', '/'), "/") + "/";
+            new MissingObjectsFetcher(
+                Git.wrap(repository),
+                Constants.DEFAULT_REMOTE_NAME,
+                (command, transportConfigCallback) -> authentified(command, runContext, transportConfigCallback),
+                NullProgressMonitor.INSTANCE
+            ).fetchMissing(commit.getTree(), path -> path.startsWith(prefix));
+        }
+
+        return new TreeSyncSource(repository, commit.getTree(), gitDirectory);
+    }
+
+    /**
+     * @return the changes of the target since its last synchronized commit, or null when not incremental or when the
+     * whole tree must be synchronized.
+     */
+    private GitChanges changes(RunContext runContext, Clone.Output cloneOutput, ObjectId head, SyncTarget target, Optional<ObjectId> lastCommit, SyncSource source) throws Exception {
+        if (!Boolean.TRUE.equals(this.incremental) || head == null) {
+            return null;
+        }
+
+        GitChanges changes = null;
+        if (lastCommit.isPresent()) {
+            changes = diff(runContext, Path.of(cloneOutput.getDirectory()), lastCommit.get(), head, target.gitDirectory(), source);
+        }
+
+        if (changes != null) {
+            runContext.logger().info("Synchronizing changes from commit {} to commit {} in namespace '{}'", lastCommit.get().name(), head.name(), target.namespace());
+        } else {
+            runContext.logger().info("No usable synchronization state, synchronizing the whole tree at commit {} in namespace '{}'", head.name(), target.namespace());
+        }
+
+        return changes;
+    }
+
+    /**
+     * Computes the paths, relative to the Git directory, that changed between the last synchronized commit and the new
+     * one. The last synchronized commit is fetched without its blobs if the shallow clone doesn't hold it.
+     *
+     * @return the changes, or null if they can't be computed reliably and the whole tree must be synchronized.
+     */
+    private GitChanges diff(RunContext runContext, Path repositoryPath, ObjectId lastCommit, ObjectId head, String gitDirectory, SyncSource source) throws Exception {
+        Logger logger = runContext.logger();
+
+        try (Git git = Git.open(repositoryPath.toFile())) {
+            Repository repository = git.getRepository();
+            if (!repository.getObjectDatabase().has(lastCommit)) {
+                FetchCommand fetchCommand = git.fetch()
+                    .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                    .setRefSpecs(new RefSpec(lastCommit.name()))
+                    .setDepth(1)
+                    .setTagOpt(TagOpt.NO_TAGS);
+                FilterSpec treesOnly = FilterSpec.fromFilterLine("blob:none");
+
+                try {
+                    authentified(fetchCommand, runContext, transport -> transport.setFilterSpec(treesOnly)).call();
+                } catch (Exception e) {
+                    logger.debug("Unable to fetch last synchronized commit {}", lastCommit.name(), e);
+                    return null;
                 }
+            }
+
+            String prefix = gitDirectory == null ? "" : StringUtils.strip(gitDirectory.replace('\\', '/'), "/");
+            Set<String> upsertedPaths = new HashSet<>();
+            Set<String> deletedPaths = new HashSet<>();
+            boolean flowsChanged = false;
+            try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(revWalk.parseCommit(lastCommit).getTree());
+                treeWalk.addTree(revWalk.parseCommit(head).getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(prefix.isEmpty() ? TreeFilter.ANY_DIFF : AndTreeFilter.create(PathFilter.create(prefix), TreeFilter.ANY_DIFF));
+
+                while (treeWalk.next()) {
+                    String path = prefix.isEmpty() ? treeWalk.getPathString() : treeWalk.getPathString().substring(prefix.length() + 1);
+                    if (treeWalk.getFileMode(0) == FileMode.GITLINK || treeWalk.getFileMode(1) == FileMode.GITLINK ||
+                        path.equals(KestraIgnore.KESTRA_IGNORE_FILE_NAME)) {
+                        // submodule contents and ignore rules can change what is synchronized beyond the diff itself
+                        return null;
+                    }
+
+                    if (path.startsWith(FLOWS_DIRECTORY + "/")) {
+                        flowsChanged = true;
+                        continue;
+                    }
+
+                    // as in full synchronizations, flows directories are never namespace files, whatever their depth
+                    if (("/" + path).contains("/" + FLOWS_DIRECTORY + "/")) {
+                        continue;
+                    }
+
+                    if (source.isIgnored("/" + path)) {
+                        continue;
+                    }
 
-                if (!dryRun) {
-                    URI fileUri = finalNamespaceFilePrefix.resolve(path.substring(1));
-                    if (contentByFilePath.getValue() == null) {
-                        storage.createDirectory(tenantId, fileUri);
+                    if (treeWalk.getFileMode(1) == FileMode.MISSING) {
+                        deletedPaths.add("/" + path);
                     } else {
-                        storage.put(
-                            tenantId,
-                            fileUri,
-                            new ByteArrayInputStream(contentByFilePath.getValue().getBytes())
-                        );
+                        upsertedPaths.add("/" + path);
                     }
                 }
+            }
 
-            }));
-
-        return null;
+            return new GitChanges(upsertedPaths, deletedPaths, flowsChanged);
+        }
     }
 
-    private static void logDeletion(Logger logger, String path) {
-        logger.info("- {}", path);
-    }
+    /**
+     * Groups paths by depth, from the root to the deepest paths or the other way around.
+     */
+    private static List<List<String>> byDepth(Collection<String> paths, boolean deepestFirst) {
+        TreeMap<Integer, List<String>> pathsByDepth = new TreeMap<>(deepestFirst ? Comparator.<Integer>reverseOrder() : Comparator.<Integer>naturalOrder());
+        paths.forEach(path -> pathsByDepth
+            .computeIfAbsent(StringUtils.countMatches(StringUtils.removeEnd(path, "/"), "/"), depth -> new ArrayList<>())
+            .add(path)
+        );
 
-    private static void logAddition(Logger logger, String path) {
-        logger.info("+ {}", path);
+        return new ArrayList<>(pathsByDepth.values());
     }
 
-    private static void logUpdate(Logger logger, String path) {
-        logger.info("~ {}", path);
+    /**
+     * Compares the stored namespace file with the content from Git, streaming both sides,
+     * when the file isn't known from the index of the last synchronization.
+     */
+    private static boolean isUnchanged(StorageInterface storage, String tenantId, URI uri, SyncSource.Content content) throws IOException {
+        try (InputStream stored = storage.get(tenantId, uri); InputStream fromGit = content.open()) {
+            return IOUtils.contentEquals(stored, fromGit);
+        }
     }
 
     @Override
@@ -294,4 +854,172 @@ public class Sync extends AbstractGitTask implements RunnableTask<VoidOutput> {
     public String getUrl() {
         return super.getUrl();
     }
+
+    private record GitChanges(Set<String> upsertedPaths, Set<String> deletedPaths, boolean flowsChanged) {
+    }
+
+    private record SyncTarget(String gitDirectory, String namespace, String namespaceFilesDirectory, SyncState syncState) {
+    }
+
+    /**
+     * The synchronization of one target, filled in phase after phase.
+     */
+    private static class TargetSynchronization {
+        private final SyncTarget target;
+        private final SyncSource source;
+        /**
+         * The changes since the last synchronized commit, or null when the whole tree is synchronized.
+         */
+        private final GitChanges changes;
+        private final ChangeLogger changeLogger;
+
+        // walk
+        private Map<String, SyncSource.Content> flowFiles;
+        private URI namespaceFilePrefix;
+        private Map<String, URI> fullUriByRelativeNsFilesPath;
+        private Map<String, SyncSource.Content> gitContentByFilePath;
+        private Set<String> deletedPaths;
+
+        // compare
+        private FlowReconciler flowReconciler;
+        private FlowReconciler.Plan flowPlan;
+        private List<String> deletions;
+        private Map<String, SyncState.FileState> previousFileStates;
+        private Map<String, SyncState.FileState> fileStates;
+        private Set<String> unchangedPaths;
+        private List<String> writtenPaths;
+
+        // apply
+        private ChangeCounts flowCounts = new ChangeCounts(0, 0, 0, 0);
+        private ChangeCounts namespaceFileCounts = new ChangeCounts(0, 0, 0, 0);
+        private long bytesUploaded;
+
+        private TargetSynchronization(SyncTarget target, SyncSource source, GitChanges changes, ChangeLogger changeLogger) {
+            this.target = target;
+            this.source = source;
+            this.changes = changes;
+            this.changeLogger = changeLogger;
+        }
+    }
+
+    @Builder
+    @Getter
+    public static class Output implements io.kestra.core.models.tasks.Output {
+        @Schema(
+            title = "The id of the commit synchronized"
+        )
+        private final String commitId;
+
+        @Schema(
+            title = "The URI in internal storage of the list of changes, when changes are logged as a summary"
+        )
+        private final URI diff;
+
+        @Schema(
+            title = "The number of flows added"
+        )
+        @Builder.Default
+        private final Integer flowsAdded = 0;
+
+        @Schema(
+            title = "The number of flows updated"
+        )
+        @Builder.Default
+        private final Integer flowsUpdated = 0;
+
+        @Schema(
+            title = "The number of flows left unchanged"
+        )
+        @Builder.Default
+        private final Integer flowsUnchanged = 0;
+
+        @Schema(
+            title = "The number of flows deleted"
+        )
+        @Builder.Default
+        private final Integer flowsDeleted = 0;
+
+        @Schema(
+            title = "The number of namespace files and directories added"
+        )
+        @Builder.Default
+        private final Integer namespaceFilesAdded = 0;
+
+        @Schema(
+            title = "The number of namespace files updated"
+        )
+        @Builder.Default
+        private final Integer namespaceFilesUpdated = 0;
+
+        @Schema(
+            title = "The number of namespace files and directories left unchanged"
+        )
+        @Builder.Default
+        private final Integer namespaceFilesUnchanged = 0;
+
+        @Schema(
+            title = "The number of namespace files and directories deleted"
+        )
+        @Builder.Default
+        private final Integer namespaceFilesDeleted = 0;
+
+        @Schema(
+            title = "The number of bytes uploaded to namespace files"
+        )
+        @Builder.Default
+        private final Long bytesUploaded = 0L;
+
+        @Schema(
+            title = "The time spent cloning the repository and fetching the objects to synchronize"
+        )
+        @Builder.Default
+        private final Duration cloneDuration = Duration.ZERO;
+
+        @Schema(
+            title = "The time spent listing the files in Git and the namespace files"
+        )
+        @Builder.Default
+        private final Duration walkDuration = Duration.ZERO;
+
+        @Schema(
+            title = "The time spent computing the changes, including reading, parsing and validating flows and comparing namespace files contents"
+        )
+        @Builder.Default
+        private final Duration diffDuration = Duration.ZERO;
+
+        @Schema(
+            title = "The time spent importing and deleting flows, and writing and deleting namespace files"
+        )
+        @Builder.Default
+        private final Duration applyDuration = Duration.ZERO;
+    }
+
+    @Builder
+    @Getter
+    @Jacksonized
+    public static class Target {
+        @Schema(
+            title = "Git directory to synchronize from. If not specified, all files from the Git repository will be synchronized."
+        )
+        @PluginProperty(dynamic = true)
+        private String gitDirectory;
+
+        @Schema(
+            title = "Namespace to synchronize to. Will default to the namespace of the flow.",
+            description = "Must be the namespace of the flow or one of its child namespaces."
+        )
+        @PluginProperty(dynamic = true)
+        private String namespace;
+
+        @Schema(
+            title = "Namespace files directory to synchronize Git to. Will default to root of namespace files."
+        )
+        @PluginProperty(dynamic = true)
+        private String namespaceFilesDirectory;
+    }
+
+    public enum LogMode {
+        FULL,
+        SUMMARY
+    }
 }
@@ -0,0 +1,86 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.Rethrow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs batches of independent I/O operations, such as storage calls, with a bounded concurrency.
+ * <p>
+ * Every operation of a batch is run even if some of them fail, and all failures are reported together once the batch
+ * is complete. Virtual threads are used when the runtime provides them, a fixed pool of platform threads otherwise.
+ */
+public class BoundedExecutor implements AutoCloseable {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    public BoundedExecutor(int parallelism) {
+        this.executor = virtualThreadExecutor().orElseGet(() -> Executors.newFixedThreadPool(parallelism));
+        this.permits = new Semaphore(parallelism);
+    }
+
+    private static Optional<ExecutorService> virtualThreadExecutor() {
+        try {
+            // only available from Java 21, while the plugin targets Java 17
+            return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Applies the action to every item and waits for all of them.
+     *
+     * @throws Exception if at least one action failed, with the first failure as cause and the other ones suppressed.
+     */
+    public <T> void runAll(Collection<T> items, Rethrow.ConsumerChecked<T, Exception> action) throws Exception {
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            permits.acquire();
+            try {
+                futures.add(executor.submit(() -> {
+                    try {
+                        action.accept(item);
+                        return null;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        List<Throwable> failures = new ArrayList<>();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            Exception exception = new Exception(
+                failures.size() + " of " + items.size() + " operations failed, first failure: " + failures.get(0).getMessage(),
+                failures.get(0)
+            );
+            failures.subList(1, failures.size()).forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
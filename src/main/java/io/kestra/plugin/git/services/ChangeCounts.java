@@ -0,0 +1,7 @@
+package io.kestra.plugin.git.services;
+
+/**
+ * Numbers of paths or flows added, updated, left unchanged and deleted by a synchronization.
+ */
+public record ChangeCounts(int added, int updated, int unchanged, int deleted) {
+}
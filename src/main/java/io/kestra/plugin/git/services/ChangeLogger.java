@@ -0,0 +1,151 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.serializers.FileSerde;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports the changes performed by a synchronization.
+ * <p>
+ * By default, every change is logged. In summary mode, changes are written to a diff file, one ION row per change
+ * with its `action` and `path`, and only the first ones are logged, followed by a summary, so that large trees don't
+ * flood the logs.
+ * <p>
+ * When several namespaces are synchronized at once, each one reports its changes through its own view, which adds the
+ * namespace to log lines and diff rows while sharing the diff file and the counts.
+ */
+public class ChangeLogger implements Closeable {
+    public static final int SAMPLE_SIZE = 20;
+
+    private final Changes changes;
+    private final String namespace;
+
+    private ChangeLogger(Changes changes, String namespace) {
+        this.changes = changes;
+        this.namespace = namespace;
+    }
+
+    public static ChangeLogger full(Logger logger) {
+        return new ChangeLogger(new Changes(logger, null), null);
+    }
+
+    /**
+     * @param diffFile the file the changes are written to.
+     */
+    public static ChangeLogger summary(Logger logger, Path diffFile) throws IOException {
+        return new ChangeLogger(new Changes(logger, new BufferedOutputStream(Files.newOutputStream(diffFile))), null);
+    }
+
+    /**
+     * @return a view reporting the changes of the given namespace to the same logger and diff file.
+     */
+    public ChangeLogger forNamespace(String namespace) {
+        return new ChangeLogger(changes, namespace);
+    }
+
+    public void addition(String path) throws IOException {
+        log(Action.ADDED, path);
+    }
+
+    public void update(String path) throws IOException {
+        log(Action.UPDATED, path);
+    }
+
+    public void deletion(String path) throws IOException {
+        log(Action.DELETED, path);
+    }
+
+    /**
+     * Unchanged paths are only logged at debug level, and never in summary mode.
+     */
+    public void unchanged(String path) {
+        if (changes.diff == null) {
+            changes.logger.debug("= {}", describe(path));
+        }
+    }
+
+    private void log(Action action, String path) throws IOException {
+        synchronized (changes) {
+            switch (action) {
+                case ADDED -> changes.additions++;
+                case UPDATED -> changes.updates++;
+                case DELETED -> changes.deletions++;
+            }
+
+            if (changes.diff == null || changes.additions + changes.updates + changes.deletions <= SAMPLE_SIZE) {
+                changes.logger.info("{} {}", action.symbol, describe(path));
+            }
+
+            if (changes.diff != null) {
+                Map<String, String> row = new LinkedHashMap<>();
+                row.put("action", action.name());
+                if (namespace != null) {
+                    row.put("namespace", namespace);
+                }
+                row.put("path", path);
+                FileSerde.write(changes.diff, row);
+            }
+        }
+    }
+
+    private String describe(String path) {
+        return namespace == null ? path : path + " (" + namespace + ")";
+    }
+
+    /**
+     * Logs the number of changes, in summary mode only.
+     */
+    public void summarize() {
+        synchronized (changes) {
+            if (changes.diff == null) {
+                return;
+            }
+
+            int count = changes.additions + changes.updates + changes.deletions;
+            if (count > SAMPLE_SIZE) {
+                changes.logger.info("... and {} more changes, see the diff output for the full list", count - SAMPLE_SIZE);
+            }
+            changes.logger.info("{} additions, {} updates, {} deletions", changes.additions, changes.updates, changes.deletions);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (changes.diff != null) {
+            changes.diff.close();
+        }
+    }
+
+    private enum Action {
+        ADDED("+"),
+        UPDATED("~"),
+        DELETED("-");
+
+        private final String symbol;
+
+        Action(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private static class Changes {
+        private final Logger logger;
+        private final OutputStream diff;
+        private int additions;
+        private int updates;
+        private int deletions;
+
+        private Changes(Logger logger, OutputStream diff) {
+            this.logger = logger;
+            this.diff = diff;
+        }
+    }
+}
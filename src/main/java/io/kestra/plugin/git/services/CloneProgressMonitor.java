@@ -0,0 +1,146 @@
+package io.kestra.plugin.git.services;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+/**
+ * Progress monitor recording how long each phase of a clone takes, from the tasks JGit reports.
+ * <p>
+ * JGit reports no task while it connects, reads the ref advertisement and negotiates with the remote, so that phase is
+ * measured from the creation of the monitor until the first reported task, or until {@link #endFetch()} when nothing had
+ * to be transferred. Server side messages (counting and compressing objects) are part of that negotiation phase too, as
+ * the client is only waiting for the pack at that time.
+ */
+public class CloneProgressMonitor implements ProgressMonitor {
+    private static final String RECEIVING_OBJECTS = "Receiving objects";
+    private static final String RESOLVING_DELTAS = "Resolving deltas";
+    private static final String CHECKING_OUT = "Checking out";
+
+    private final long start = System.nanoTime();
+
+    private Long firstLocalTaskStart;
+    private String currentTask;
+    private long currentTaskStart;
+
+    private long receiveNanos;
+    private long resolveNanos;
+    private long checkoutNanos;
+    private long objectsReceived;
+
+    @Override
+    public synchronized void start(int totalTasks) {
+    }
+
+    @Override
+    public synchronized void beginTask(String title, int totalWork) {
+        long now = System.nanoTime();
+        endTask(now);
+
+        currentTask = title;
+        currentTaskStart = now;
+        if (firstLocalTaskStart == null && isLocalTask(title)) {
+            firstLocalTaskStart = now;
+        }
+        if (title.startsWith(RECEIVING_OBJECTS) && totalWork != UNKNOWN) {
+            objectsReceived += totalWork;
+        }
+    }
+
+    @Override
+    public synchronized void update(int completed) {
+    }
+
+    @Override
+    public synchronized void endTask() {
+        endTask(System.nanoTime());
+    }
+
+    private void endTask(long now) {
+        if (currentTask == null) {
+            return;
+        }
+
+        long elapsed = now - currentTaskStart;
+        if (currentTask.startsWith(RECEIVING_OBJECTS)) {
+            receiveNanos += elapsed;
+        } else if (currentTask.startsWith(RESOLVING_DELTAS)) {
+            resolveNanos += elapsed;
+        } else if (currentTask.startsWith(CHECKING_OUT)) {
+            checkoutNanos += elapsed;
+        }
+        currentTask = null;
+    }
+
+    private static boolean isLocalTask(String title) {
+        return title.startsWith(RECEIVING_OBJECTS) || title.startsWith(RESOLVING_DELTAS) || title.startsWith(CHECKING_OUT);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public void showDuration(boolean enabled) {
+    }
+
+    /**
+     * Marks the end of a fetch or clone command. When the remote had nothing to send, no task was reported and the
+     * negotiation ends here, instead of running on until the durations are read.
+     */
+    public synchronized void endFetch() {
+        if (firstLocalTaskStart == null) {
+            firstLocalTaskStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Accounts for a checkout that was not reported through this monitor.
+     */
+    public synchronized void addCheckout(Duration duration) {
+        checkoutNanos += duration.toNanos();
+    }
+
+    public synchronized Duration getNegotiationDuration() {
+        return Duration.ofNanos((firstLocalTaskStart == null ? System.nanoTime() : firstLocalTaskStart) - start);
+    }
+
+    public synchronized Duration getReceiveDuration() {
+        return Duration.ofNanos(receiveNanos);
+    }
+
+    public synchronized Duration getResolveDuration() {
+        return Duration.ofNanos(resolveNanos);
+    }
+
+    public synchronized Duration getCheckoutDuration() {
+        return Duration.ofNanos(checkoutNanos);
+    }
+
+    public synchronized long getObjectsReceived() {
+        return objectsReceived;
+    }
+
+    /**
+     * @return the size of the pack files of the repository, which is what was received over the wire for a fresh clone.
+     */
+    public static long packSize(Path gitDirectory) throws IOException {
+        Path packDirectory = gitDirectory.resolve("objects").resolve("pack");
+        if (!Files.isDirectory(packDirectory)) {
+            return 0L;
+        }
+
+        try (Stream<Path> packs = Files.list(packDirectory)) {
+            long size = 0L;
+            for (Path pack : packs.filter(path -> path.getFileName().toString().endsWith(".pack")).toList()) {
+                size += Files.size(pack);
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.models.flows.Flow;
+import io.kestra.core.models.flows.FlowWithSource;
+import io.kestra.core.models.validations.ModelValidator;
+import io.kestra.core.repositories.FlowRepositoryInterface;
+import io.kestra.core.serializers.YamlFlowParser;
+import io.kestra.core.services.FlowService;
+import io.kestra.plugin.git.Sync;
+import lombok.AllArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+
+/**
+ * Reconciles the flows of a namespace, and of its child namespaces, with the flow files read from Git.
+ * <p>
+ * Flow files are read, parsed and validated concurrently, and nothing is applied if any of them is invalid or if two of
+ * them define the same flow. Flows whose source is identical to the stored one are left untouched; the other ones are
+ * imported level by level, a flow being imported after the subflows it calls. Stored flows of the namespace itself that
+ * are no longer in Git are deleted.
+ */
+@AllArgsConstructor
+public class FlowReconciler {
+    private final FlowRepositoryInterface flowRepository;
+    private final FlowService flowService;
+    private final YamlFlowParser yamlFlowParser;
+    private final ModelValidator modelValidator;
+    private final BoundedExecutor executor;
+    private final ChangeLogger changeLogger;
+    private final String tenantId;
+    private final String namespace;
+    private final String selfFlowNamespace;
+    private final String selfFlowId;
+    private final boolean directoriesAsNamespaces;
+
+    /**
+     * Computes the changes to apply, without applying anything.
+     *
+     * @param flowFiles the contents of the flow files by their path, starting with `/_flows/`.
+     * @throws IllegalArgumentException if at least one flow is invalid or defined twice, listing all of them.
+     */
+    public Plan plan(Map<String, SyncSource.Content> flowFiles) throws Exception {
+        // flows already stored in the namespace and its child namespaces, loaded once and indexed by namespace and id
+        Map<String, FlowWithSource> existingFlowByKey = flowRepository.findWithSource(null, tenantId, namespace, null).stream()
+            .collect(Collectors.toMap(
+                flow -> key(flow.getNamespace(), flow.getId()),
+                Function.identity(),
+                (flow1, flow2) -> flow2.getRevision() > flow1.getRevision() ? flow2 : flow1
+            ));
+
+        Map<String, String> unchangedKeyByPath = new ConcurrentHashMap<>();
+        Map<String, FlowFile> changedFlowByPath = new ConcurrentHashMap<>();
+        Map<String, String> errorByPath = new ConcurrentHashMap<>();
+        Map<String, String> keyByPath = new ConcurrentHashMap<>();
+        executor.runAll(flowFiles.keySet(), path -> {
+            try {
+                String source = new String(flowFiles.get(path).readAllBytes(), StandardCharsets.UTF_8);
+                FlowFile flowFile = parse(path, source, existingFlowByKey);
+                keyByPath.put(path, flowFile.key());
+                if (flowFile.flow() == null) {
+                    unchangedKeyByPath.put(path, flowFile.key());
+                } else {
+                    changedFlowByPath.put(path, flowFile);
+                }
+            } catch (Exception e) {
+                errorByPath.put(path, String.valueOf(e.getMessage()));
+            }
+        });
+
+        // files of different directories may define the same flow, which one would win is undefined
+        Map<String, Set<String>> pathsByKey = new HashMap<>();
+        keyByPath.forEach((path, key) -> pathsByKey.computeIfAbsent(key, k -> new TreeSet<>()).add(path));
+        pathsByKey.forEach((key, paths) -> {
+            if (paths.size() > 1) {
+                paths.forEach(path -> errorByPath.put(path, "duplicate flow '" + key + "', also defined in " +
+                    paths.stream().filter(other -> !other.equals(path)).collect(Collectors.joining(", "))
+                ));
+            }
+        });
+
+        if (!errorByPath.isEmpty()) {
+            throw new IllegalArgumentException(errorByPath.size() + " invalid flow(s), nothing was synchronized:\n" +
+                new TreeMap<>(errorByPath).entrySet().stream()
+                    .map(error -> "- " + error.getKey() + ": " + error.getValue())
+                    .collect(Collectors.joining("\n"))
+            );
+        }
+
+        Set<String> keysInGit = new HashSet<>(keyByPath.values());
+
+        // only flows of the namespace itself are deleted, child namespaces may be synchronized on their own unless they
+        // are mapped from directories
+        List<FlowWithSource> deletions = existingFlowByKey.values().stream()
+            .filter(flow -> flow.getNamespace().equals(namespace) || directoriesAsNamespaces && flow.getNamespace().startsWith(namespace + "."))
+            .filter(flow -> !keysInGit.contains(key(flow.getNamespace(), flow.getId())))
+            // prevent self deletion
+            .filter(flow -> !(flow.getNamespace().equals(selfFlowNamespace) && flow.getId().equals(selfFlowId)))
+            .sorted(Comparator.comparing(Flow::getId))
+            .toList();
+
+        return new Plan(
+            byDependencies(changedFlowByPath.values()),
+            existingFlowByKey.keySet(),
+            unchangedKeyByPath.keySet().stream().sorted().toList(),
+            deletions
+        );
+    }
+
+    /**
+     * Logs the changes of the plan and, unless in dry run, applies them.
+     */
+    public ChangeCounts apply(Plan plan, boolean dryRun) throws Exception {
+        plan.unchangedPaths().forEach(changeLogger::unchanged);
+
+        int added = 0;
+        int updated = 0;
+        for (List<FlowFile> level : plan.levels()) {
+            for (FlowFile flowFile : level) {
+                if (plan.existingKeys().contains(flowFile.key())) {
+                    updated++;
+                    changeLogger.update(flowFile.path());
+                } else {
+                    added++;
+                    changeLogger.addition(flowFile.path());
+                }
+            }
+
+            if (!dryRun) {
+                executor.runAll(level, flowFile -> flowService.importFlow(tenantId, flowFile.source()));
+            }
+        }
+
+        for (FlowWithSource flow : plan.deletions()) {
+            if (!dryRun) {
+                flowRepository.delete(flow.toFlow());
+            }
+            changeLogger.deletion(path(flow));
+        }
+
+        return new ChangeCounts(added, updated, plan.unchangedPaths().size(), plan.deletions().size());
+    }
+
+    /**
+     * @return the path a deleted flow, which has no file in Git anymore, would have in the flows directory.
+     */
+    private String path(Flow flow) {
+        String directories = directoriesAsNamespaces && flow.getNamespace().startsWith(namespace + ".")
+            ? flow.getNamespace().substring(namespace.length() + 1).replace('.', '/') + "/"
+            : "";
+
+        return "/" + SyncSource.FLOWS_DIRECTORY + "/" + directories + flow.getId() + ".yml";
+    }
+
+    /**
+     * @return the namespace of a flow file: the synchronized namespace, followed by the directories of the file inside the
+     * flows directory when they are mapped to child namespaces.
+     */
+    private String namespace(String path) {
+        String directories = path.substring(("/" + SyncSource.FLOWS_DIRECTORY + "/").length(), path.lastIndexOf('/') + 1);
+        if (!directoriesAsNamespaces || directories.isEmpty()) {
+            return namespace;
+        }
+
+        return namespace + "." + directories.substring(0, directories.length() - 1).replace('/', '.');
+    }
+
+    /**
+     * Moves the flow to the given namespace unless it belongs to one of its child namespaces, then parses and validates
+     * it if its source differs from the stored one.
+     *
+     * @return the flow file, without its parsed flow when unchanged.
+     */
+    private FlowFile parse(String path, String source, Map<String, FlowWithSource> existingFlowByKey) {
+        String namespace = namespace(path);
+        Matcher namespaceMatcher = Sync.NAMESPACE_FINDER_PATTERN.matcher(source);
+        if (!namespaceMatcher.find()) {
+            throw new IllegalArgumentException("no namespace declared");
+        }
+
+        String flowNamespace = namespaceMatcher.group(1);
+        if (!flowNamespace.startsWith(namespace + ".")) {
+            flowNamespace = namespace;
+            source = namespaceMatcher.replaceFirst("namespace: " + namespace);
+        }
+
+        Matcher idMatcher = Sync.FLOW_ID_FINDER_PATTERN.matcher(source);
+        if (idMatcher.find()) {
+            String key = key(flowNamespace, idMatcher.group(1).trim());
+            FlowWithSource existingFlow = existingFlowByKey.get(key);
+            if (existingFlow != null && source.equals(existingFlow.getSource())) {
+                return new FlowFile(path, key, source, null);
+            }
+        }
+
+        Flow flow = yamlFlowParser.parse(source, Flow.class);
+        modelValidator.validate(flow);
+
+        return new FlowFile(path, key(flow.getNamespace(), flow.getId()), source, flow);
+    }
+
+    /**
+     * Groups flows in levels, each flow being in a later level than the flows it calls as subflows. Flows of a
+     * dependency cycle are all put in the last level.
+     */
+    private static List<List<FlowFile>> byDependencies(Collection<FlowFile> flowFiles) {
+        Map<String, FlowFile> flowFileByKey = flowFiles.stream()
+            .collect(Collectors.toMap(FlowFile::key, Function.identity()));
+
+        Map<String, Set<String>> dependenciesByKey = new HashMap<>();
+        flowFileByKey.forEach((key, flowFile) -> dependenciesByKey.put(key, flowFile.flow().allTasksWithChilds().stream()
+            .filter(task -> task instanceof io.kestra.core.tasks.flows.Flow)
+            .map(task -> (io.kestra.core.tasks.flows.Flow) task)
+            .map(subflow -> key(subflow.getNamespace(), subflow.getFlowId()))
+            .filter(dependency -> !dependency.equals(key) && flowFileByKey.containsKey(dependency))
+            .collect(Collectors.toCollection(HashSet::new))
+        ));
+
+        List<List<FlowFile>> levels = new ArrayList<>();
+        while (!dependenciesByKey.isEmpty()) {
+            List<String> independent = dependenciesByKey.entrySet().stream()
+                .filter(dependencies -> dependencies.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+            List<String> ready = independent.isEmpty() ? dependenciesByKey.keySet().stream().sorted().toList() : independent;
+
+            ready.forEach(dependenciesByKey::remove);
+            dependenciesByKey.values().forEach(dependencies -> ready.forEach(dependencies::remove));
+            levels.add(ready.stream().map(flowFileByKey::get).toList());
+        }
+
+        return levels;
+    }
+
+    private static String key(String namespace, String id) {
+        return namespace + "/" + id;
+    }
+
+    /**
+     * A flow file read from Git.
+     *
+     * @param path the path of the file, starting with `/_flows/`.
+     * @param key the namespace and id of the flow.
+     * @param flow the parsed flow, or null when the source is identical to the stored one.
+     */
+    public record FlowFile(String path, String key, String source, Flow flow) {
+    }
+
+    /**
+     * The flows to import, grouped in levels to import one after the other, the paths of the unchanged flow files, and
+     * the stored flows to delete.
+     */
+    public record Plan(List<List<FlowFile>> levels, Set<String> existingKeys, List<String> unchangedPaths, List<FlowWithSource> deletions) {
+    }
+}
@@ -0,0 +1,52 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.KestraIgnore;
+import org.eclipse.jgit.ignore.IgnoreNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Rules of a `.kestraignore` file, parsed once and matched with the `.gitignore` semantics.
+ * <p>
+ * Paths are relative to the directory holding the ignore file and use `/` as separator. A path is ignored when it, or
+ * one of its parent directories, is matched by the rules. The ignore file itself is always ignored.
+ */
+public class IgnoreRules {
+    private final IgnoreNode ignoreNode;
+
+    private IgnoreRules(IgnoreNode ignoreNode) {
+        this.ignoreNode = ignoreNode;
+    }
+
+    public static IgnoreRules empty() {
+        return new IgnoreRules(new IgnoreNode());
+    }
+
+    public static IgnoreRules parse(InputStream inputStream) throws IOException {
+        IgnoreNode ignoreNode = new IgnoreNode();
+        ignoreNode.parse(inputStream);
+        return new IgnoreRules(ignoreNode);
+    }
+
+    public boolean isIgnored(String path, boolean directory) {
+        for (int slash = path.indexOf('/'); slash > 0; slash = path.indexOf('/', slash + 1)) {
+            if (isMatched(path.substring(0, slash), true)) {
+                return true;
+            }
+        }
+
+        return isMatched(path, directory);
+    }
+
+    /**
+     * Only matches the path itself, for callers walking the tree top-down that already pruned ignored parents.
+     */
+    public boolean isMatched(String path, boolean directory) {
+        if (path.equals(KestraIgnore.KESTRA_IGNORE_FILE_NAME)) {
+            return true;
+        }
+
+        return Boolean.TRUE.equals(ignoreNode.checkIgnored(path, directory));
+    }
+}
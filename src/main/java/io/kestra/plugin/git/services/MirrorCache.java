@@ -0,0 +1,337 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.Rethrow;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.PackInvalidException;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Worker-local cache of bare mirror repositories, one per normalized remote URL.
+ * <p>
+ * A mirror is created by a full bare clone of the branches and tags the first time a URL is requested, then kept up to
+ * date with incremental fetches. Only a corrupted mirror is dropped, failing fetches are reported as is.
+ * Callers clone their working tree locally from the mirror while holding a {@link Lease}, which prevents the mirror from
+ * being updated or evicted until the lease is closed.
+ * The cache is bounded in size: once a lease is released, least recently used mirrors are evicted until the cache fits.
+ * <p>
+ * Leases are only coordinated within this JVM: the cache directory must be private to a single worker, and must not be
+ * shared with other worker processes, for instance through a network file system.
+ */
+public class MirrorCache {
+    public static final Path DEFAULT_ROOT = Path.of(System.getProperty("java.io.tmpdir"), "kestra-git-mirrors");
+
+    private static final String MIRROR_SUFFIX = ".git";
+    private static final List<RefSpec> REF_SPECS = List.of(
+        new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*"),
+        new RefSpec("+" + Constants.R_TAGS + "*:" + Constants.R_TAGS + "*")
+    );
+    // only the locks of mirrors being acquired, leased or evicted are kept
+    private static final Map<String, MirrorLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final long maxSize;
+    private final Logger logger;
+
+    public MirrorCache(Path root, long maxSize, Logger logger) {
+        this.root = root;
+        this.maxSize = maxSize;
+        this.logger = logger;
+    }
+
+    /**
+     * Normalizes a remote URL so that equivalent spellings share the same mirror:
+     * credentials, trailing slashes and the `.git` suffix are stripped and the host is lower-cased.
+     */
+    public static String normalize(String url) {
+        try {
+            URIish uri = new URIish(url.trim()).setUser(null).setPass(null);
+            if (uri.getHost() != null) {
+                uri = uri.setHost(uri.getHost().toLowerCase(Locale.ROOT));
+            }
+            return uri.setPath(stripSuffixes(uri.getPath())).toString();
+        } catch (URISyntaxException e) {
+            return stripSuffixes(url.trim());
+        }
+    }
+
+    /**
+     * Creates or incrementally updates the mirror of the given URL, then returns a lease on it.
+     * The lease must be closed once the local clone from the mirror is done.
+     *
+     * @param monitor the monitor of the transfer from the remote to the mirror.
+     */
+    public Lease acquire(String url, Rethrow.ConsumerChecked<TransportCommand<?, ?>, Exception> authenticator, CloneProgressMonitor monitor) throws Exception {
+        String key = key(url);
+        Path mirror = root.resolve(key + MIRROR_SUFFIX);
+        ReentrantReadWriteLock lock = retain(key);
+
+        long bytesReceived;
+        try {
+            lock.writeLock().lock();
+            try {
+                Files.createDirectories(root);
+                bytesReceived = update(url, mirror, authenticator, monitor);
+                Files.setLastModifiedTime(mirror, FileTime.from(Instant.now()));
+
+                // downgrade to a read lock so that concurrent executions can clone from the same mirror
+                lock.readLock().lock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            release(key);
+            throw e;
+        }
+
+        return new Lease(key, mirror, lock, bytesReceived);
+    }
+
+    /**
+     * @return the size of the packs received from the remote.
+     */
+    private long update(String url, Path mirror, Rethrow.ConsumerChecked<TransportCommand<?, ?>, Exception> authenticator, CloneProgressMonitor monitor) throws Exception {
+        if (Files.isDirectory(mirror) && RepositoryCache.FileKey.isGitRepository(mirror.toFile(), FS.DETECTED)) {
+            try (Git git = Git.open(mirror.toFile())) {
+                StoredConfig config = git.getRepository().getConfig();
+                // mirrors cloned with `--mirror` hold every ref of the remote, they are recreated with branches and tags only
+                if (!config.getBoolean("remote", "origin", "mirror", false)) {
+                    config.setString("remote", "origin", "url", url);
+                    config.save();
+
+                    long initialPackSize = CloneProgressMonitor.packSize(mirror);
+                    FetchCommand fetchCommand = git.fetch()
+                        .setRemote("origin")
+                        .setRefSpecs(REF_SPECS)
+                        .setRemoveDeletedRefs(true)
+                        .setProgressMonitor(monitor);
+                    authenticator.accept(fetchCommand);
+                    fetchCommand.call();
+                    monitor.endFetch();
+
+                    return Math.max(0L, CloneProgressMonitor.packSize(mirror) - initialPackSize);
+                }
+            } catch (Exception e) {
+                // transport and authentication failures, possibly due to this execution only, must not drop a mirror
+                // other executions rely on: only a corrupted or partially written mirror is recreated from scratch
+                if (!isCorruption(e)) {
+                    throw e;
+                }
+            }
+            FileUtils.deleteDirectory(mirror.toFile());
+        } else if (Files.exists(mirror)) {
+            FileUtils.deleteDirectory(mirror.toFile());
+        }
+
+        // branches and tags only, `--mirror` would also fetch every other ref such as the pull requests of GitHub
+        CloneCommand cloneCommand = Git.cloneRepository()
+            .setURI(url)
+            .setDirectory(mirror.toFile())
+            .setBare(true)
+            .setCloneAllBranches(true)
+            .setTagOption(TagOpt.FETCH_TAGS)
+            .setProgressMonitor(monitor);
+        authenticator.accept(cloneCommand);
+
+        try {
+            cloneCommand.call().close();
+            monitor.endFetch();
+        } catch (Exception e) {
+            FileUtils.deleteDirectory(mirror.toFile());
+            throw e;
+        }
+
+        return CloneProgressMonitor.packSize(mirror);
+    }
+
+    private static boolean isCorruption(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RepositoryNotFoundException || cause instanceof CorruptObjectException ||
+                cause instanceof MissingObjectException || cause instanceof PackInvalidException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Evicts least recently used mirrors until the cache fits in its maximum size.
+     * Mirrors that are currently leased, as well as the excluded key, are never evicted.
+     */
+    void evict(String excludedKey) throws IOException {
+        List<Path> mirrors;
+        try (Stream<Path> list = Files.list(root)) {
+            mirrors = list
+                .filter(path -> path.getFileName().toString().endsWith(MIRROR_SUFFIX))
+                .sorted(Comparator.comparing(MirrorCache::lastAccess))
+                .toList();
+        }
+
+        long totalSize = mirrors.stream().mapToLong(MirrorCache::size).sum();
+        for (Path mirror : mirrors) {
+            if (totalSize <= maxSize) {
+                return;
+            }
+
+            String key = mirror.getFileName().toString();
+            key = key.substring(0, key.length() - MIRROR_SUFFIX.length());
+            if (key.equals(excludedKey)) {
+                continue;
+            }
+
+            ReentrantReadWriteLock lock = retain(key);
+            try {
+                if (lock.writeLock().tryLock()) {
+                    try {
+                        long mirrorSize = size(mirror);
+                        FileUtils.deleteDirectory(mirror.toFile());
+                        totalSize -= mirrorSize;
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            } finally {
+                release(key);
+            }
+        }
+    }
+
+    /**
+     * @return the lock of the mirror with the given key, which must be released once no longer used.
+     */
+    private static ReentrantReadWriteLock retain(String key) {
+        return LOCKS.compute(key, (k, lock) -> {
+            MirrorLock mirrorLock = lock == null ? new MirrorLock() : lock;
+            mirrorLock.users++;
+            return mirrorLock;
+        });
+    }
+
+    private static void release(String key) {
+        LOCKS.computeIfPresent(key, (k, lock) -> --lock.users == 0 ? null : lock);
+    }
+
+    static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalize(url).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String stripSuffixes(String path) {
+        return path == null ? null : StringUtils.removeEnd(StringUtils.stripEnd(path, "/"), MIRROR_SUFFIX);
+    }
+
+    private static FileTime lastAccess(Path mirror) {
+        try {
+            return Files.getLastModifiedTime(mirror);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long size(Path mirror) {
+        try (Stream<Path> walk = Files.walk(mirror)) {
+            return walk
+                .filter(Files::isRegularFile)
+                .mapToLong(path -> {
+                    try {
+                        return Files.size(path);
+                    } catch (IOException e) {
+                        return 0L;
+                    }
+                })
+                .sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0L;
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+        private final String key;
+        private final Path directory;
+        private final ReentrantReadWriteLock lock;
+        private final long bytesReceived;
+
+        private Lease(String key, Path directory, ReentrantReadWriteLock lock, long bytesReceived) {
+            this.key = key;
+            this.directory = directory;
+            this.lock = lock;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * @return the directory of the bare mirror, to be used as a local clone URI.
+         */
+        public Path directory() {
+            return directory;
+        }
+
+        /**
+         * @return the size of the packs the mirror received from the remote when it was acquired.
+         */
+        public long bytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * Releases the mirror, then evicts least recently used mirrors. Eviction is best effort: as the clone from the
+         * mirror is already done, a failure to evict is only logged.
+         */
+        @Override
+        public void close() {
+            lock.readLock().unlock();
+            release(key);
+
+            try {
+                evict(key);
+            } catch (IOException | UncheckedIOException e) {
+                logger.warn("Unable to evict mirrors from the cache '{}'", root, e);
+            }
+        }
+    }
+
+    /**
+     * A lock counting the executions using it, so that it can be dropped once the last one released it.
+     * Its count is only updated while computing its entry of {@link #LOCKS}.
+     */
+    private static class MirrorLock extends ReentrantReadWriteLock {
+        private int users;
+    }
+}
@@ -0,0 +1,144 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.Rethrow;
+import lombok.AllArgsConstructor;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Fetches, from the promisor remote of a partial clone, the objects that were filtered out at clone time but are needed
+ * to check out a tree.
+ * <p>
+ * JGit has no lazy object loading, so missing trees and blobs are resolved up-front, level by level, and requested in
+ * batches by object id. Trees are requested with a `blob:none` filter so that a whole missing subtree structure comes
+ * back in a single round trip without its blobs.
+ */
+@AllArgsConstructor
+public class MissingObjectsFetcher {
+    private static final int BATCH_SIZE = 500;
+    private static final FilterSpec TREES_ONLY;
+
+    static {
+        try {
+            TREES_ONLY = FilterSpec.fromFilterLine("blob:none");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final Git git;
+    private final String remote;
+    private final Rethrow.BiConsumerChecked<TransportCommand<?, ?>, TransportConfigCallback, Exception> authenticator;
+    private final ProgressMonitor monitor;
+
+    /**
+     * Records the remote as a promisor with the given filter, so that Git clients used later on this working tree
+     * also know they have to fetch missing objects lazily.
+     */
+    public static void configurePromisor(Git git, String remote, String filter) throws IOException {
+        StoredConfig config = git.getRepository().getConfig();
+        config.setBoolean("remote", remote, "promisor", true);
+        config.setString("remote", remote, "partialclonefilter", filter);
+        config.setInt("core", null, "repositoryformatversion", 1);
+        config.setString("extensions", null, "partialclone", remote);
+        config.save();
+    }
+
+    /**
+     * Makes every tree and blob reachable from the given tree available locally.
+     *
+     * @return the number of objects that had to be requested from the remote.
+     */
+    public int fetchMissing(AnyObjectId tree) throws Exception {
+        return fetchMissing(tree, path -> true);
+    }
+
+    /**
+     * Makes every tree reachable from the given tree available locally, as well as the blobs whose path is accepted by
+     * the given predicate. Trees are always needed as they describe the whole index.
+     *
+     * @return the number of objects that had to be requested from the remote.
+     */
+    public int fetchMissing(AnyObjectId tree, Predicate<String> blobs) throws Exception {
+        int requested = 0;
+        Set<ObjectId> missingBlobs = new LinkedHashSet<>();
+
+        try (ObjectReader reader = git.getRepository().newObjectReader()) {
+            Map<String, ObjectId> trees = Map.of("", tree.copy());
+            while (!trees.isEmpty()) {
+                requested += fetch(missing(reader, trees.values()), TREES_ONLY);
+
+                Map<String, ObjectId> subTrees = new LinkedHashMap<>();
+                for (Map.Entry<String, ObjectId> treeByPath : trees.entrySet()) {
+                    CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, treeByPath.getValue());
+                    for (; !parser.eof(); parser.next()) {
+                        String path = treeByPath.getKey() + parser.getEntryPathString();
+                        int type = parser.getEntryRawMode() & FileMode.TYPE_MASK;
+                        if (type == FileMode.TYPE_TREE) {
+                            subTrees.put(path + "/", parser.getEntryObjectId());
+                        } else if (type != FileMode.TYPE_GITLINK && blobs.test(path) && !reader.has(parser.getEntryObjectId())) {
+                            // submodule commits live in another repository, everything else is a blob
+                            missingBlobs.add(parser.getEntryObjectId());
+                        }
+                    }
+                }
+
+                trees = subTrees;
+            }
+        }
+
+        return requested + fetch(missingBlobs, null);
+    }
+
+    private static List<ObjectId> missing(ObjectReader reader, Collection<ObjectId> objectIds) throws IOException {
+        List<ObjectId> missing = new ArrayList<>();
+        for (ObjectId objectId : objectIds) {
+            if (!reader.has(objectId)) {
+                missing.add(objectId);
+            }
+        }
+
+        return missing;
+    }
+
+    private int fetch(Collection<ObjectId> objectIds, FilterSpec filterSpec) throws Exception {
+        List<ObjectId> ids = new ArrayList<>(objectIds);
+        for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+            List<RefSpec> refSpecs = ids.subList(from, Math.min(from + BATCH_SIZE, ids.size())).stream()
+                .map(id -> new RefSpec(id.name()))
+                .toList();
+
+            FetchCommand fetchCommand = git.fetch()
+                .setRemote(remote)
+                .setTagOpt(TagOpt.NO_TAGS)
+                .setRefSpecs(refSpecs)
+                .setProgressMonitor(monitor);
+            authenticator.accept(fetchCommand, filterSpec == null ? null : transport -> transport.setFilterSpec(filterSpec));
+            fetchCommand.call();
+        }
+
+        return ids.size();
+    }
+}
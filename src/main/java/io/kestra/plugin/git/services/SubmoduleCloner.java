@@ -0,0 +1,188 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.Rethrow;
+import lombok.AllArgsConstructor;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.SubmoduleInitCommand;
+import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * Clones the submodules of a repository concurrently on a bounded pool.
+ * <p>
+ * Each submodule is initialized empty and only the commit recorded in its parent is fetched, shallowly when a depth is
+ * given, instead of cloning the whole submodule history. Servers refusing to serve a commit by id are handled by falling
+ * back to a full fetch of their branches. Nested submodules are discovered as their parent completes and are scheduled on
+ * the same pool.
+ * <p>
+ * As with Git, submodules of the parent repository outside its sparse cone are neither initialized nor cloned. Cloned
+ * submodules are fully checked out, since the cone of their parent doesn't apply inside them.
+ */
+@AllArgsConstructor
+public class SubmoduleCloner {
+    private final int parallelism;
+    private final Integer depth;
+    private final boolean recursive;
+    // the sparse cone of the parent repository, see WorkingTreeCheckout#cone
+    private final Predicate<String> cone;
+    private final int checkoutThreads;
+    private final Rethrow.ConsumerChecked<TransportCommand<?, ?>, Exception> authenticator;
+    private final Logger logger;
+
+    /**
+     * @return the number of submodules cloned, including nested ones.
+     */
+    public int cloneSubmodules(Repository repository) throws Exception {
+        List<Submodule> submodules = submodules(repository, cone);
+        if (submodules.isEmpty()) {
+            return 0;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, submodules.size()));
+        CompletionService<List<Submodule>> completionService = new ExecutorCompletionService<>(executor);
+        try {
+            int pending = 0;
+            int cloned = 0;
+            for (Submodule submodule : submodules) {
+                completionService.submit(() -> cloneSubmodule(submodule));
+                pending++;
+            }
+
+            while (pending > 0) {
+                List<Submodule> nested;
+                try {
+                    nested = completionService.take().get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception exception ? exception : e;
+                }
+                pending--;
+                cloned++;
+
+                for (Submodule submodule : nested) {
+                    completionService.submit(() -> cloneSubmodule(submodule));
+                    pending++;
+                }
+            }
+
+            return cloned;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param included whether a submodule path belongs to the sparse cone of the repository.
+     */
+    private List<Submodule> submodules(Repository repository, Predicate<String> included) throws Exception {
+        Set<String> paths = new HashSet<>();
+        try (SubmoduleWalk walk = SubmoduleWalk.forIndex(repository)) {
+            while (walk.next()) {
+                if (included.test(walk.getPath())) {
+                    paths.add(walk.getPath());
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            return List.of();
+        }
+
+        // resolves relative URLs against the parent remote and records them in the parent configuration
+        SubmoduleInitCommand initCommand = Git.wrap(repository).submoduleInit();
+        paths.forEach(initCommand::addPath);
+        initCommand.call();
+
+        List<Submodule> submodules = new ArrayList<>();
+        try (SubmoduleWalk walk = SubmoduleWalk.forIndex(repository)) {
+            while (walk.next()) {
+                String url = walk.getConfigUrl();
+                if (!paths.contains(walk.getPath()) || url == null) {
+                    continue;
+                }
+
+                submodules.add(new Submodule(
+                    walk.getPath(),
+                    url,
+                    walk.getObjectId().copy(),
+                    walk.getDirectory(),
+                    new File(repository.getDirectory(), Constants.MODULES + "/" + walk.getPath())
+                ));
+            }
+        }
+
+        return submodules;
+    }
+
+    private List<Submodule> cloneSubmodule(Submodule submodule) throws Exception {
+        logger.debug("Cloning submodule '{}' at {} from '{}'", submodule.path(), submodule.commit().name(), submodule.url());
+
+        try (Git git = Git.init().setDirectory(submodule.workTree()).setGitDir(submodule.gitDir()).call()) {
+            Repository repository = git.getRepository();
+
+            StoredConfig config = repository.getConfig();
+            config.setString("remote", Constants.DEFAULT_REMOTE_NAME, "url", submodule.url());
+            config.setString("remote", Constants.DEFAULT_REMOTE_NAME, "fetch", "+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*");
+            config.save();
+
+            fetch(git, submodule);
+
+            RevCommit commit = repository.parseCommit(submodule.commit());
+            new WorkingTreeCheckout(repository, null, checkoutThreads).checkout(commit.getTree());
+
+            RefUpdate refUpdate = repository.updateRef(Constants.HEAD, true);
+            refUpdate.setNewObjectId(commit);
+            refUpdate.forceUpdate();
+
+            return recursive ? submodules(repository, path -> true) : List.of();
+        }
+    }
+
+    private void fetch(Git git, Submodule submodule) throws Exception {
+        FetchCommand fetchCommand = git.fetch()
+            .setRemote(Constants.DEFAULT_REMOTE_NAME)
+            .setTagOpt(TagOpt.NO_TAGS)
+            .setRefSpecs(new RefSpec(submodule.commit().name()));
+        if (depth != null) {
+            fetchCommand.setDepth(depth);
+        }
+        authenticator.accept(fetchCommand);
+
+        try {
+            fetchCommand.call();
+        } catch (Exception e) {
+            logger.debug("Unable to fetch commit {} of submodule '{}' directly, fetching all its branches", submodule.commit().name(), submodule.path(), e);
+        }
+
+        if (!git.getRepository().getObjectDatabase().has(submodule.commit())) {
+            FetchCommand fullFetchCommand = git.fetch()
+                .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                .setTagOpt(TagOpt.NO_TAGS);
+            authenticator.accept(fullFetchCommand);
+            fullFetchCommand.call();
+        }
+    }
+
+    private record Submodule(String path, String url, ObjectId commit, File workTree, File gitDir) {
+    }
+}
@@ -0,0 +1,162 @@
+package io.kestra.plugin.git.services;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks serializing the synchronizations of the same targets on this worker, with coalescing.
+ * <p>
+ * A synchronization that had to wait for another one can reuse its result: when a synchronization succeeds, the
+ * commit it synchronized to each of its targets is recorded along with what was synchronized there (repository,
+ * branch and Git directory), so the waiting synchronization only has to run again if it synchronizes something else or
+ * if the branch head moved in the meantime. The record is cleared as soon as a synchronization starts, so a
+ * synchronization that fails leaves no record behind.
+ */
+public class SyncLocks {
+    private static final Map<String, Slot> SLOTS = new ConcurrentHashMap<>();
+
+    private SyncLocks() {
+    }
+
+    /**
+     * @return the key of the lock of a target, that is a namespace files directory of a namespace.
+     */
+    public static String key(String tenantId, String namespace, String namespaceFilesDirectory) {
+        return tenantId + "/" + namespace + "/" + StringUtils.strip(Objects.toString(namespaceFilesDirectory, ""), "/");
+    }
+
+    /**
+     * @return a description of what is synchronized to a target, to tell whether a previous synchronization of the same
+     * target can be reused.
+     */
+    public static String source(String url, String branch, String gitDirectory) {
+        return url + "\n" + Objects.toString(branch, "") + "\n" + StringUtils.strip(Objects.toString(gitDirectory, ""), "/");
+    }
+
+    /**
+     * Waits until all the given targets are free, locking them in a stable order so that overlapping sets of targets
+     * never dead-lock.
+     *
+     * @param sourceByKey what is synchronized to each target, by the key of its lock.
+     */
+    public static Lease acquire(Map<String, String> sourceByKey) throws InterruptedException {
+        return acquire(sourceByKey, () -> {});
+    }
+
+    /**
+     * Same as {@link #acquire(Map)}, calling the given callback once if a target is busy, before waiting for it.
+     */
+    public static Lease acquire(Map<String, String> sourceByKey, Runnable onWait) throws InterruptedException {
+        List<Slot> locked = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        List<Synchronization> previous = new ArrayList<>();
+        boolean waited = false;
+        try {
+            for (Map.Entry<String, String> entry : new TreeMap<>(sourceByKey).entrySet()) {
+                Slot slot = SLOTS.computeIfAbsent(entry.getKey(), k -> new Slot());
+                if (!slot.lock.tryLock()) {
+                    if (!waited) {
+                        onWait.run();
+                    }
+                    waited = true;
+                    slot.lock.lockInterruptibly();
+                }
+                locked.add(slot);
+                sources.add(entry.getValue());
+
+                // only recorded again once this synchronization succeeds
+                previous.add(slot.lastSynchronized);
+                slot.lastSynchronized = null;
+            }
+        } catch (InterruptedException e) {
+            for (int i = 0; i < locked.size(); i++) {
+                locked.get(i).lastSynchronized = previous.get(i);
+                locked.get(i).lock.unlock();
+            }
+            throw e;
+        }
+
+        return new Lease(locked, sources, previous, waited);
+    }
+
+    /**
+     * @return a lease locking nothing, for synchronizations that don't write anything.
+     */
+    public static Lease none() {
+        return new Lease(List.of(), List.of(), List.of(), false);
+    }
+
+    public static class Lease implements AutoCloseable {
+        private final List<Slot> slots;
+        private final List<String> sources;
+        private final List<Synchronization> previous;
+        private final boolean waited;
+
+        private Lease(List<Slot> slots, List<String> sources, List<Synchronization> previous, boolean waited) {
+            this.slots = slots;
+            this.sources = sources;
+            this.previous = previous;
+            this.waited = waited;
+        }
+
+        /**
+         * @return whether another synchronization of the same targets was running when the lease was requested.
+         */
+        public boolean waited() {
+            return waited;
+        }
+
+        /**
+         * @return the commit successfully synchronized to all targets by the previous holders, if they all synchronized
+         * the same commit from the same sources as this synchronization.
+         */
+        public Optional<ObjectId> lastSynchronized() {
+            if (slots.isEmpty() || previous.get(0) == null) {
+                return Optional.empty();
+            }
+
+            ObjectId commit = previous.get(0).commit();
+            for (int i = 0; i < slots.size(); i++) {
+                Synchronization synchronization = previous.get(i);
+                if (synchronization == null || !synchronization.source().equals(sources.get(i)) || !synchronization.commit().equals(commit)) {
+                    return Optional.empty();
+                }
+            }
+
+            return Optional.of(commit);
+        }
+
+        /**
+         * Records the commit successfully synchronized to all targets.
+         */
+        public void synchronizedCommit(ObjectId commit) {
+            for (int i = 0; i < slots.size(); i++) {
+                slots.get(i).lastSynchronized = new Synchronization(sources.get(i), commit);
+            }
+        }
+
+        @Override
+        public void close() {
+            for (int i = slots.size() - 1; i >= 0; i--) {
+                slots.get(i).lock.unlock();
+            }
+        }
+    }
+
+    private static class Slot {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Synchronization lastSynchronized;
+    }
+
+    private record Synchronization(String source, ObjectId commit) {
+    }
+}
@@ -0,0 +1,65 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.Rethrow;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Files of a Git directory to synchronize, either read from a working tree or directly from Git objects.
+ * <p>
+ * Paths are relative to the Git directory, start with `/`, and end with `/` for directories. Collecting paths never
+ * reads file contents: they are streamed from their source when opened.
+ */
+public interface SyncSource extends AutoCloseable {
+    String FLOWS_DIRECTORY = "_flows";
+
+    /**
+     * @return the flow files of the flows directory and its subdirectories, ignored paths excluded, or null if there is
+     * no flows directory.
+     */
+    Map<String, Content> flows() throws IOException;
+
+    /**
+     * @return every file and directory to synchronize as namespace files, mapped to their content, null for directories.
+     * The `.git` and flows directories as well as ignored paths are excluded. Symbolic links are excluded too, whether
+     * read from the working tree or from Git objects, as their target may lie outside of the repository.
+     */
+    Map<String, Content> namespaceFiles() throws IOException;
+
+    /**
+     * @return the content of a regular file, if there is one at this path.
+     */
+    Optional<Content> file(String path) throws IOException;
+
+    boolean isDirectory(String path) throws IOException;
+
+    boolean isIgnored(String path);
+
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @param content opens the content of the file.
+     * @param blobId computes the Git blob id of the content, which identifies it without reading the stored copy.
+     */
+    record Content(Rethrow.SupplierChecked<InputStream, IOException> content, Rethrow.SupplierChecked<ObjectId, IOException> blobId) {
+        public InputStream open() throws IOException {
+            return content.get();
+        }
+
+        public ObjectId id() throws IOException {
+            return blobId.get();
+        }
+
+        public byte[] readAllBytes() throws IOException {
+            try (InputStream inputStream = open()) {
+                return inputStream.readAllBytes();
+            }
+        }
+    }
+}
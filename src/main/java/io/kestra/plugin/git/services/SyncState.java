@@ -0,0 +1,126 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.storages.StorageInterface;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * State of the synchronizations of a `Sync` task, stored in internal storage next to the namespace files of the target
+ * namespace rather than among them, so that neither flows, Push nor synchronizations ever see it.
+ * <p>
+ * There is one state per synchronization target: the same repository, branch and Git directory synchronized to another
+ * namespace files directory has its own state. It holds the last synchronized commit, only written by incremental
+ * synchronizations, and an index of the files synchronized: their Git blob id, along with the size and last
+ * modification time of the stored file once written. A stored file whose size and modification time still match the
+ * index is known to hold that blob, so it can be compared with Git without being read.
+ */
+public class SyncState {
+    public static final String STATE_DIRECTORY = "_git-sync";
+
+    private final StorageInterface storage;
+    private final String tenantId;
+    private final URI uri;
+    private final URI indexUri;
+
+    public SyncState(StorageInterface storage, String tenantId, String namespace, String... target) {
+        this.storage = storage;
+        this.tenantId = tenantId;
+        String key = key(target);
+        URI directory = directory(storage, namespace);
+        this.uri = directory.resolve(key + ".commit");
+        this.indexUri = directory.resolve(key + ".index");
+    }
+
+    /**
+     * @return the directory holding the synchronization states of a namespace, a sibling of its namespace files directory.
+     */
+    public static URI directory(StorageInterface storage, String namespace) {
+        return URI.create("kestra://" + storage.namespaceFilePrefix(namespace)).resolve(STATE_DIRECTORY + "/");
+    }
+
+    /**
+     * @return the id of the last synchronized commit, if any.
+     */
+    public Optional<ObjectId> lastCommit() throws IOException {
+        if (!storage.exists(tenantId, uri)) {
+            return Optional.empty();
+        }
+
+        try (InputStream inputStream = storage.get(tenantId, uri)) {
+            String commit = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8).trim();
+            return ObjectId.isId(commit) ? Optional.of(ObjectId.fromString(commit)) : Optional.empty();
+        }
+    }
+
+    public void save(ObjectId commit) throws IOException {
+        storage.put(tenantId, uri, new ByteArrayInputStream(commit.name().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return the files synchronized by the last synchronization, by their path relative to the namespace files directory.
+     */
+    public Map<String, FileState> files() throws IOException {
+        Map<String, FileState> files = new HashMap<>();
+        if (!storage.exists(tenantId, indexUri)) {
+            return files;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(storage.get(tenantId, indexUri), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // blob id, size and modification time come first as the path may contain spaces
+                String[] fields = line.split(" ", 4);
+                if (fields.length == 4 && ObjectId.isId(fields[0])) {
+                    files.put(fields[3], new FileState(ObjectId.fromString(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+            }
+        }
+
+        return files;
+    }
+
+    public void saveFiles(Map<String, FileState> files) throws IOException {
+        String index = new TreeMap<>(files).entrySet().stream()
+            .map(file -> file.getValue().blobId().name() + " " + file.getValue().size() + " " + file.getValue().lastModified() + " " + file.getKey() + "\n")
+            .collect(Collectors.joining());
+        storage.put(tenantId, indexUri, new ByteArrayInputStream(index.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String key(String... target) {
+        String joined = Stream.of(target)
+            .map(part -> Objects.toString(part, ""))
+            .collect(Collectors.joining("\n"));
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(joined.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param blobId the Git blob id of the file content.
+     * @param size the size of the stored file.
+     * @param lastModified the last modification time of the stored file, in milliseconds.
+     */
+    public record FileState(ObjectId blobId, long size, long lastModified) {
+    }
+}
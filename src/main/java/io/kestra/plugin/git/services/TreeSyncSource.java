@@ -0,0 +1,165 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.KestraIgnore;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Files of a Git directory read directly from the tree of a commit, without any working tree.
+ * <p>
+ * Blobs are streamed from the object database when opened, so nothing is ever written to disk. Submodules are not
+ * part of a tree and are therefore skipped.
+ */
+public class TreeSyncSource implements SyncSource {
+    private final Repository repository;
+    private final ObjectId tree;
+    private final IgnoreRules ignoreRules;
+
+    /**
+     * @param tree the root tree of the commit to synchronize, null for an empty repository.
+     * @param directory the Git directory to synchronize, relative to the repository root; null for the whole repository.
+     */
+    public TreeSyncSource(Repository repository, AnyObjectId tree, String directory) throws IOException {
+        this.repository = repository;
+
+        String prefix = directory == null ? "" : directory.replace('\\', '/').replaceAll("^/+|/+$", "");
+        if (tree == null || prefix.isEmpty()) {
+            this.tree = tree == null ? null : tree.copy();
+        } else {
+            try (TreeWalk walk = TreeWalk.forPath(repository, prefix, tree)) {
+                this.tree = walk != null && walk.getFileMode(0) == FileMode.TREE ? walk.getObjectId(0) : null;
+            }
+        }
+
+        Optional<Content> ignoreFile = file("/" + KestraIgnore.KESTRA_IGNORE_FILE_NAME);
+        if (ignoreFile.isPresent()) {
+            try (InputStream inputStream = ignoreFile.get().open()) {
+                this.ignoreRules = IgnoreRules.parse(inputStream);
+            }
+        } else {
+            this.ignoreRules = IgnoreRules.empty();
+        }
+    }
+
+    @Override
+    public Map<String, Content> flows() throws IOException {
+        ObjectId flowsTree = find(FLOWS_DIRECTORY).filter(walk -> walk.getFileMode(0) == FileMode.TREE).map(walk -> walk.getObjectId(0)).orElse(null);
+        if (flowsTree == null) {
+            return null;
+        }
+
+        Map<String, Content> flows = new HashMap<>();
+        // the flows directory itself may be ignored through one of its parents
+        if (ignoreRules.isIgnored(FLOWS_DIRECTORY, true)) {
+            return flows;
+        }
+
+        try (TreeWalk walk = new TreeWalk(repository)) {
+            walk.addTree(flowsTree);
+            walk.setRecursive(false);
+
+            while (walk.next()) {
+                String path = FLOWS_DIRECTORY + "/" + walk.getPathString();
+                FileMode mode = walk.getFileMode(0);
+                if (mode == FileMode.TREE) {
+                    if (!ignoreRules.isMatched(path, true)) {
+                        walk.enterSubtree();
+                    }
+                } else if (isFile(mode) && !ignoreRules.isMatched(path, false)) {
+                    flows.put("/" + path, content(walk.getObjectId(0)));
+                }
+            }
+        }
+
+        return flows;
+    }
+
+    @Override
+    public Map<String, Content> namespaceFiles() throws IOException {
+        Map<String, Content> namespaceFiles = new HashMap<>();
+        if (tree == null) {
+            return namespaceFiles;
+        }
+
+        try (TreeWalk walk = new TreeWalk(repository)) {
+            walk.addTree(tree);
+            walk.setRecursive(false);
+
+            while (walk.next()) {
+                String path = walk.getPathString();
+                FileMode mode = walk.getFileMode(0);
+                if (mode == FileMode.TREE) {
+                    // pruned subtrees are never read
+                    String name = walk.getNameString();
+                    if (name.equals(Constants.DOT_GIT) || name.equals(FLOWS_DIRECTORY) || ignoreRules.isMatched(path, true)) {
+                        continue;
+                    }
+
+                    namespaceFiles.put("/" + path + "/", null);
+                    walk.enterSubtree();
+                } else if (isFile(mode) && !ignoreRules.isMatched(path, false)) {
+                    namespaceFiles.put("/" + path, content(walk.getObjectId(0)));
+                }
+            }
+        }
+
+        return namespaceFiles;
+    }
+
+    @Override
+    public Optional<Content> file(String path) throws IOException {
+        return find(trim(path))
+            .filter(walk -> isFile(walk.getFileMode(0)))
+            .map(walk -> content(walk.getObjectId(0)));
+    }
+
+    @Override
+    public boolean isDirectory(String path) throws IOException {
+        return find(trim(path)).filter(walk -> walk.getFileMode(0) == FileMode.TREE).isPresent();
+    }
+
+    @Override
+    public boolean isIgnored(String path) {
+        return ignoreRules.isIgnored(trim(path), false);
+    }
+
+    /**
+     * @return a walk positioned on the entry at the given path, already closed as only its current entry is read.
+     */
+    private Optional<TreeWalk> find(String path) throws IOException {
+        if (tree == null) {
+            return Optional.empty();
+        }
+
+        try (TreeWalk walk = TreeWalk.forPath(repository, path, tree)) {
+            return Optional.ofNullable(walk);
+        }
+    }
+
+    @Override
+    public void close() {
+        repository.close();
+    }
+
+    private static boolean isFile(FileMode mode) {
+        return mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE;
+    }
+
+    private static String trim(String path) {
+        return path.replaceAll("^/+|/+$", "");
+    }
+
+    private Content content(ObjectId blob) {
+        return new Content(() -> repository.open(blob, Constants.OBJ_BLOB).openStream(), () -> blob);
+    }
+}
@@ -0,0 +1,507 @@
+package io.kestra.plugin.git.services;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Checks out a tree into the working tree of a repository, optionally restricted to a set of directories.
+ * <p>
+ * The index always lists every path of the tree, so that the repository stays consistent for later commits, but only
+ * paths selected by the sparse cone are written to disk. The cone follows Git's cone mode: files at the root of the
+ * repository, files directly inside an ancestor of a selected directory, and everything below a selected directory.
+ * As with Git, paths outside the cone are marked skip-worktree in the index and the cone is recorded in the sparse
+ * checkout configuration, so that Git doesn't report them as deleted.
+ */
+public class WorkingTreeCheckout {
+    private static final int MIN_WRITES_PER_THREAD = 64;
+    private static final String CONFIG_KEY_SPARSE_CHECKOUT = "sparseCheckout";
+    private static final String CONFIG_KEY_SPARSE_CHECKOUT_CONE = "sparseCheckoutCone";
+    private static final String INFO_SPARSE_CHECKOUT = "info/sparse-checkout";
+
+    // index format, see https://git-scm.com/docs/index-format
+    private static final int INDEX_SIGNATURE = 0x44495243;
+    private static final int INDEX_EXTENDED_VERSION = 3;
+    private static final int INDEX_PATH_COMPRESSED_VERSION = 4;
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final int ENTRY_FLAGS_OFFSET = 60;
+    private static final int ENTRY_EXTENDED = 0x4000;
+    private static final int ENTRY_SKIP_WORKTREE = 0x4000;
+
+    private final Repository repository;
+    private final List<String> directories;
+    private final Predicate<String> included;
+    private final int threads;
+
+    public WorkingTreeCheckout(Repository repository, Collection<String> paths) {
+        this(repository, paths, 1);
+    }
+
+    /**
+     * @param threads the number of threads writing files concurrently.
+     */
+    public WorkingTreeCheckout(Repository repository, Collection<String> paths, int threads) {
+        this.repository = repository;
+        this.directories = directories(paths);
+        this.included = cone(paths);
+        this.threads = threads;
+    }
+
+    /**
+     * @param paths the directories of the sparse cone, relative to the repository root; null or empty means the whole tree.
+     * @return a predicate telling whether a file path belongs to the cone.
+     */
+    public static Predicate<String> cone(Collection<String> paths) {
+        List<String> directories = directories(paths);
+        if (directories == null) {
+            return path -> true;
+        }
+
+        return path -> {
+            int lastSlash = path.lastIndexOf('/');
+            if (lastSlash < 0) {
+                return true;
+            }
+
+            String parent = path.substring(0, lastSlash);
+            return directories.stream().anyMatch(directory ->
+                path.startsWith(directory + "/") || directory.equals(parent) || directory.startsWith(parent + "/")
+            );
+        };
+    }
+
+    /**
+     * @return the normalized directories of the cone, or null when the whole tree is checked out.
+     */
+    private static List<String> directories(Collection<String> paths) {
+        if (paths == null || paths.isEmpty()) {
+            return null;
+        }
+
+        List<String> directories = paths.stream()
+            .map(WorkingTreeCheckout::normalize)
+            .toList();
+
+        return directories.contains("") ? null : directories;
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        while (normalized.startsWith("/") || normalized.startsWith("./")) {
+            normalized = normalized.substring(normalized.startsWith("/") ? 1 : 2);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Writes the selected files of the tree to the working tree and replaces the index with the full tree.
+     * <p>
+     * When the working tree already holds a checkout, files whose index entry is unchanged and whose stat data still
+     * matches the index are left untouched, and files that are no longer part of the tree or of the cone are deleted.
+     * <p>
+     * The tree is walked and directories are created on the calling thread; file contents are then inflated and written
+     * concurrently, each thread with its own object reader.
+     *
+     * @return the number of files written to disk.
+     */
+    public int checkout(ObjectId tree) throws IOException {
+        FS fs = repository.getFS();
+
+        DirCache dirCache = repository.lockDirCache();
+        try (ObjectReader reader = repository.newObjectReader(); TreeWalk walk = new TreeWalk(repository, reader)) {
+            Set<String> previousPaths = new HashSet<>();
+            for (int i = 0; i < dirCache.getEntryCount(); i++) {
+                previousPaths.add(dirCache.getEntry(i).getPathString());
+            }
+
+            Set<String> directories = new HashSet<>();
+            Set<String> skipped = new HashSet<>();
+            List<DirCacheEntry> entries = new ArrayList<>();
+            List<Write> writes = new ArrayList<>();
+            walk.setOperationType(TreeWalk.OperationType.CHECKOUT_OP);
+            walk.addTree(tree);
+            walk.setRecursive(true);
+
+            while (walk.next()) {
+                String path = walk.getPathString();
+                FileMode mode = walk.getFileMode(0);
+                DirCacheEntry previous = previousPaths.remove(path) ? dirCache.getEntry(path) : null;
+                addParents(directories, path);
+
+                DirCacheEntry entry = new DirCacheEntry(path);
+                entry.setFileMode(mode);
+                entry.setObjectId(walk.getObjectId(0));
+                entries.add(entry);
+
+                File file = new File(repository.getWorkTree(), path);
+                if (!included.test(path)) {
+                    skipped.add(path);
+                    if (previous != null) {
+                        delete(file, directories);
+                    }
+                } else if (isUpToDate(fs, previous, entry, file)) {
+                    entry.setLength(previous.getLength());
+                    entry.setLastModified(previous.getLastModifiedInstant());
+                } else {
+                    // directories are created here, in tree order, so that concurrent writes never race on them
+                    prepare(fs, file);
+                    writes.add(new Write(entry, file, new DirCacheCheckout.CheckoutMetadata(
+                        walk.getEolStreamType(TreeWalk.OperationType.CHECKOUT_OP),
+                        walk.getFilterCommand(Constants.ATTR_FILTER_TYPE_SMUDGE)
+                    )));
+                }
+            }
+
+            // paths left are no longer part of the tree, unless they became a directory of the new tree
+            for (String path : previousPaths) {
+                if (!directories.contains(path)) {
+                    delete(new File(repository.getWorkTree(), path), directories);
+                }
+            }
+
+            write(writes);
+
+            DirCacheBuilder builder = dirCache.builder();
+            entries.forEach(builder::add);
+
+            // the index is written to its lock file, where the skip-worktree flags are set before it replaces the index
+            builder.finish();
+            dirCache.write();
+            if (!skipped.isEmpty()) {
+                File indexFile = repository.getIndexFile();
+                markSkipWorkTree(new File(indexFile.getParentFile(), indexFile.getName() + LOCK_SUFFIX), skipped);
+            }
+            if (!dirCache.commit()) {
+                throw new IOException("Unable to write the index of '" + repository.getDirectory() + "'");
+            }
+            writeSparseCheckout();
+
+            return writes.size();
+        } finally {
+            dirCache.unlock();
+        }
+    }
+
+    /**
+     * Sets the skip-worktree flag of the given index entries, which JGit can read but not write. The index is rewritten
+     * in version 3, the first one supporting this extended flag, entries being otherwise copied as is. A version 4 index
+     * has its prefix-compressed paths expanded back.
+     *
+     * @param lockedIndexFile the lock file of the index, holding the index that is about to be committed.
+     */
+    private static void markSkipWorkTree(File lockedIndexFile, Set<String> paths) throws IOException {
+        byte[] index = Files.readAllBytes(lockedIndexFile.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(index);
+        int version = buffer.getInt(4);
+        if (buffer.getInt(0) != INDEX_SIGNATURE || version < 2 || version > INDEX_PATH_COMPRESSED_VERSION) {
+            throw new IOException("Unsupported index format version " + version + " in '" + lockedIndexFile + "'");
+        }
+        int entryCount = buffer.getInt(8);
+
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream(index.length + 8 * paths.size());
+        DataOutputStream output = new DataOutputStream(rewritten);
+        output.writeInt(INDEX_SIGNATURE);
+        output.writeInt(INDEX_EXTENDED_VERSION);
+        output.writeInt(entryCount);
+
+        int offset = 12;
+        byte[] previousPath = new byte[0];
+        for (int i = 0; i < entryCount; i++) {
+            int flags = buffer.getShort(offset + ENTRY_FLAGS_OFFSET) & 0xffff;
+            boolean extended = version >= INDEX_EXTENDED_VERSION && (flags & ENTRY_EXTENDED) != 0;
+            int extendedFlags = extended ? buffer.getShort(offset + ENTRY_FLAGS_OFFSET + 2) & 0xffff : 0;
+            int pathStart = offset + ENTRY_FLAGS_OFFSET + (extended ? 4 : 2);
+
+            byte[] path;
+            int next;
+            if (version == INDEX_PATH_COMPRESSED_VERSION) {
+                // the number of bytes to remove from the end of the previous path, then the NUL-terminated suffix to append
+                int position = pathStart;
+                int b = index[position++] & 0xff;
+                long strip = b & 0x7f;
+                while ((b & 0x80) != 0) {
+                    b = index[position++] & 0xff;
+                    strip = ((strip + 1) << 7) | (b & 0x7f);
+                }
+                int suffixEnd = position;
+                while (index[suffixEnd] != 0) {
+                    suffixEnd++;
+                }
+
+                int prefixLength = previousPath.length - (int) strip;
+                path = new byte[prefixLength + suffixEnd - position];
+                System.arraycopy(previousPath, 0, path, 0, prefixLength);
+                System.arraycopy(index, position, path, prefixLength, suffixEnd - position);
+                next = suffixEnd + 1;
+            } else {
+                int pathEnd = pathStart;
+                while (index[pathEnd] != 0) {
+                    pathEnd++;
+                }
+
+                path = Arrays.copyOfRange(index, pathStart, pathEnd);
+                next = offset + ((pathEnd - offset + 8) & ~7);
+            }
+            previousPath = path;
+
+            if (paths.contains(RawParseUtils.decode(path))) {
+                extendedFlags |= ENTRY_SKIP_WORKTREE;
+            }
+
+            // stat data and object id, then flags, extended flags, and the path padded with 1 to 8 NUL bytes
+            output.write(index, offset, ENTRY_FLAGS_OFFSET);
+            output.writeShort(extendedFlags != 0 ? flags | ENTRY_EXTENDED : flags & ~ENTRY_EXTENDED);
+            if (extendedFlags != 0) {
+                output.writeShort(extendedFlags);
+            }
+            output.write(path);
+            int length = ENTRY_FLAGS_OFFSET + (extendedFlags != 0 ? 4 : 2) + path.length;
+            output.write(new byte[8 - length % 8]);
+
+            offset = next;
+        }
+
+        // extensions are copied as is, the trailing checksum is computed again
+        output.write(index, offset, index.length - Constants.OBJECT_ID_LENGTH - offset);
+        output.write(Constants.newMessageDigest().digest(rewritten.toByteArray()));
+        output.flush();
+
+        // the lock file is private to this checkout until it is committed over the index
+        Files.write(lockedIndexFile.toPath(), rewritten.toByteArray());
+    }
+
+    /**
+     * Records the cone in the repository configuration and the sparse checkout file the way `git sparse-checkout set
+     * --cone` does, or removes them when the whole tree is checked out.
+     */
+    private void writeSparseCheckout() throws IOException {
+        StoredConfig config = repository.getConfig();
+        Path sparseCheckoutFile = repository.getDirectory().toPath().resolve(INFO_SPARSE_CHECKOUT);
+
+        if (directories == null) {
+            if (config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, CONFIG_KEY_SPARSE_CHECKOUT, false)) {
+                config.unset(ConfigConstants.CONFIG_CORE_SECTION, null, CONFIG_KEY_SPARSE_CHECKOUT);
+                config.unset(ConfigConstants.CONFIG_CORE_SECTION, null, CONFIG_KEY_SPARSE_CHECKOUT_CONE);
+                config.save();
+            }
+            Files.deleteIfExists(sparseCheckoutFile);
+            return;
+        }
+
+        config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, CONFIG_KEY_SPARSE_CHECKOUT, true);
+        config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, CONFIG_KEY_SPARSE_CHECKOUT_CONE, true);
+        config.save();
+
+        // directories below another one of the cone are already fully included
+        TreeSet<String> recursive = new TreeSet<>(directories);
+        recursive.removeIf(directory -> directories.stream().anyMatch(other -> directory.startsWith(other + "/")));
+        TreeSet<String> parents = new TreeSet<>();
+        recursive.forEach(directory -> addParents(parents, directory + "/"));
+        parents.removeAll(recursive);
+
+        // files at the root, then for each parent its files but not its subdirectories, and each directory recursively
+        StringBuilder patterns = new StringBuilder("/*\n!/*/\n");
+        TreeSet<String> all = new TreeSet<>(recursive);
+        all.addAll(parents);
+        for (String directory : all) {
+            patterns.append('/').append(directory).append("/\n");
+            if (parents.contains(directory)) {
+                patterns.append("!/").append(directory).append("/*/\n");
+            }
+        }
+
+        Files.createDirectories(sparseCheckoutFile.getParent());
+        Files.writeString(sparseCheckoutFile, patterns.toString(), StandardCharsets.UTF_8);
+    }
+
+    private void write(List<Write> writes) throws IOException {
+        int workers = Math.min(threads, writes.size() / MIN_WRITES_PER_THREAD + 1);
+        if (workers <= 1) {
+            write(writes, new AtomicInteger());
+            return;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    write(writes, next);
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // stop the other workers as soon as possible
+                    next.set(writes.size());
+                    throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes files until none is left, taking them one by one from the shared cursor.
+     */
+    private void write(List<Write> writes, AtomicInteger next) throws IOException {
+        FS fs = repository.getFS();
+        WorkingTreeOptions options = repository.getConfig().get(WorkingTreeOptions.KEY);
+
+        try (ObjectReader reader = repository.newObjectReader()) {
+            for (int i = next.getAndIncrement(); i < writes.size(); i = next.getAndIncrement()) {
+                Write write = writes.get(i);
+                write(reader, fs, options, write.entry(), write.file(), write.metadata());
+            }
+        }
+    }
+
+    private static void addParents(Set<String> directories, String path) {
+        int slash = path.lastIndexOf('/');
+        while (slash > 0 && directories.add(path.substring(0, slash))) {
+            slash = path.lastIndexOf('/', slash - 1);
+        }
+    }
+
+    private static boolean isUpToDate(FS fs, DirCacheEntry previous, DirCacheEntry entry, File file) throws IOException {
+        if (previous == null || !previous.getFileMode().equals(entry.getFileMode()) || !previous.getObjectId().equals(entry.getObjectId())) {
+            return false;
+        }
+
+        if (FileMode.GITLINK.equals(entry.getFileMode())) {
+            return file.isDirectory();
+        }
+
+        return fs.exists(file) &&
+            fs.length(file) == previous.getLength() &&
+            fs.lastModifiedInstant(file).equals(previous.getLastModifiedInstant());
+    }
+
+    private void write(ObjectReader reader, FS fs, WorkingTreeOptions options, DirCacheEntry entry, File file, DirCacheCheckout.CheckoutMetadata metadata) throws IOException {
+        FileMode mode = entry.getFileMode();
+        if (FileMode.GITLINK.equals(mode)) {
+            // submodules are only materialized as an empty directory, their content is cloned separately
+            FileUtils.mkdirs(file, true);
+            return;
+        }
+
+        if (FileMode.SYMLINK.equals(mode)) {
+            byte[] target = reader.open(entry.getObjectId(), Constants.OBJ_BLOB).getCachedBytes();
+            fs.createSymLink(file, RawParseUtils.decode(target));
+        } else {
+            try (OutputStream outputStream = new FileOutputStream(file)) {
+                DirCacheCheckout.getContent(
+                    repository,
+                    entry.getPathString(),
+                    metadata,
+                    reader.open(entry.getObjectId(), Constants.OBJ_BLOB),
+                    options,
+                    outputStream
+                );
+            }
+
+            if (FileMode.EXECUTABLE_FILE.equals(mode) && fs.supportsExecute()) {
+                fs.setExecute(file, true);
+            }
+        }
+
+        entry.setLength(fs.length(file));
+        entry.setLastModified(fs.lastModifiedInstant(file));
+    }
+
+    /**
+     * Removes whatever prevents writing the given file: a file in place of one of its parent directories,
+     * or a directory or a symbolic link in place of the file itself.
+     */
+    private void prepare(FS fs, File file) throws IOException {
+        File workTree = repository.getWorkTree();
+        for (File parent = file.getParentFile(); parent != null && !parent.equals(workTree); parent = parent.getParentFile()) {
+            if (fs.isFile(parent) || fs.isSymLink(parent)) {
+                FileUtils.delete(parent);
+                break;
+            }
+        }
+        FileUtils.mkdirs(file.getParentFile(), true);
+
+        if (fs.isSymLink(file)) {
+            FileUtils.delete(file);
+        } else if (fs.isDirectory(file)) {
+            FileUtils.delete(file, FileUtils.RECURSIVE);
+        }
+    }
+
+    private String relativize(File file) {
+        return repository.getWorkTree().toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    private void delete(File file, Set<String> directories) throws IOException {
+        if (!repository.getFS().exists(file)) {
+            return;
+        }
+
+        FileUtils.delete(file, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+
+        // clean up directories left empty, as long as they are not part of the new tree
+        File workTree = repository.getWorkTree();
+        for (File parent = file.getParentFile(); parent != null && !parent.equals(workTree); parent = parent.getParentFile()) {
+            String[] children = parent.list();
+            if (children == null || children.length > 0 || directories.contains(relativize(parent))) {
+                break;
+            }
+            FileUtils.delete(parent, FileUtils.SKIP_MISSING);
+        }
+    }
+
+    private record Write(DirCacheEntry entry, File file, DirCacheCheckout.CheckoutMetadata metadata) {
+    }
+}
@@ -0,0 +1,147 @@
+package io.kestra.plugin.git.services;
+
+import io.kestra.core.utils.KestraIgnore;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Files of a Git directory checked out on disk.
+ * <p>
+ * The directory is walked top-down: `.git`, flows and ignored directories are pruned as soon as they are reached, so
+ * their content is never listed, and ignore rules are parsed once. The flows directory is walked the same way on its own.
+ * Symbolic links are never followed.
+ */
+public class WorkingTreeSyncSource implements SyncSource {
+    private final Path directory;
+    private final IgnoreRules ignoreRules;
+
+    public WorkingTreeSyncSource(Path directory) throws IOException {
+        this.directory = directory;
+
+        Path ignoreFile = directory.resolve(KestraIgnore.KESTRA_IGNORE_FILE_NAME);
+        if (Files.isRegularFile(ignoreFile)) {
+            try (InputStream inputStream = Files.newInputStream(ignoreFile)) {
+                this.ignoreRules = IgnoreRules.parse(inputStream);
+            }
+        } else {
+            this.ignoreRules = IgnoreRules.empty();
+        }
+    }
+
+    @Override
+    public Map<String, Content> flows() throws IOException {
+        Path flowsDirectory = directory.resolve(FLOWS_DIRECTORY);
+        if (!Files.isDirectory(flowsDirectory, LinkOption.NOFOLLOW_LINKS)) {
+            return null;
+        }
+
+        Map<String, Content> flows = new HashMap<>();
+        Files.walkFileTree(flowsDirectory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // the flows directory itself may be ignored through one of its parents
+                String path = relativize(dir);
+                boolean ignored = dir.equals(flowsDirectory) ? ignoreRules.isIgnored(path, true) : ignoreRules.isMatched(path, true);
+
+                return ignored ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String path = relativize(file);
+                if (attrs.isRegularFile() && !ignoreRules.isMatched(path, false)) {
+                    flows.put("/" + path, content(file));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return flows;
+    }
+
+    @Override
+    public Map<String, Content> namespaceFiles() throws IOException {
+        Map<String, Content> namespaceFiles = new HashMap<>();
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            return namespaceFiles;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(directory)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String name = dir.getFileName().toString();
+                String path = relativize(dir);
+                if (name.equals(Constants.DOT_GIT) || name.equals(FLOWS_DIRECTORY) || ignoreRules.isMatched(path, true)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                namespaceFiles.put("/" + path + "/", null);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String path = relativize(file);
+                // symbolic links are skipped, a `.git` file links a submodule working tree to its repository
+                if (attrs.isRegularFile() && !file.getFileName().toString().equals(Constants.DOT_GIT) && !ignoreRules.isMatched(path, false)) {
+                    namespaceFiles.put("/" + path, content(file));
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return namespaceFiles;
+    }
+
+    @Override
+    public Optional<Content> file(String path) {
+        Path file = directory.resolve(path.substring(1));
+        return Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) ? Optional.of(content(file)) : Optional.empty();
+    }
+
+    @Override
+    public boolean isDirectory(String path) {
+        return Files.isDirectory(directory.resolve(path.substring(1)), LinkOption.NOFOLLOW_LINKS);
+    }
+
+    @Override
+    public boolean isIgnored(String path) {
+        return ignoreRules.isIgnored(path.substring(1), false);
+    }
+
+    private String relativize(Path path) {
+        return directory.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static Content content(Path path) {
+        return new Content(
+            () -> new BufferedInputStream(Files.newInputStream(path)),
+            () -> {
+                // hashing the file on disk is much cheaper than reading the stored namespace file
+                try (InputStream inputStream = Files.newInputStream(path)) {
+                    return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, Files.size(path), inputStream);
+                }
+            }
+        );
+    }
+}
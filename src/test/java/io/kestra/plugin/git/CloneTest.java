@@ -6,11 +6,24 @@ import io.micronaut.context.annotation.Value;
 import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
 import jakarta.inject.Inject;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.BundleWriter;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -38,6 +51,19 @@ class CloneTest {
             hasProperty("path", endsWith("README.md")),
             hasProperty("path", containsString(".git"))
         ));
+
+        assertThat(runOutput.getObjectsReceived(), greaterThan(0L));
+        assertThat(runOutput.getBytesReceived(), greaterThan(0L));
+        assertThat(runOutput.getReceiveDuration(), notNullValue());
+        assertThat(runOutput.getCheckoutDuration(), notNullValue());
+
+        try (Git git = Git.open(Path.of(runOutput.getDirectory()).toFile())) {
+            RevCommit head = git.getRepository().parseCommit(git.getRepository().resolve("HEAD"));
+            assertThat(runOutput.getCommitId(), is(head.getName()));
+            assertThat(runOutput.getTreeId(), is(head.getTree().getName()));
+            assertThat(runOutput.getBranch(), is(git.getRepository().getFullBranch()));
+            assertThat(runOutput.getCommitDate(), notNullValue());
+        }
     }
 
     @Test
@@ -58,4 +84,309 @@ class CloneTest {
             hasProperty("path", containsString(".git"))
         ));
     }
+
+    @Test
+    void mirrorCache() throws Exception {
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .mirrorCache(true)
+            .build();
+
+        // first run creates the mirror, second run only fetches into it
+        task.run(runContextFactory.of());
+        Clone.Output runOutput = task.run(runContextFactory.of());
+
+        // transfer metrics are those of the mirror update, which had nothing to fetch, not of the local clone
+        assertThat(runOutput.getBytesReceived(), is(0L));
+
+        Collection<File> files = FileUtils.listFiles(Path.of(runOutput.getDirectory()).toFile(), null, true);
+        assertThat(files, hasItems(
+            hasProperty("path", endsWith("README.md")),
+            hasProperty("path", containsString(".git"))
+        ));
+
+        try (Git git = Git.open(Path.of(runOutput.getDirectory()).toFile())) {
+            assertThat(git.getRepository().getConfig().getString("remote", "origin", "url"), is("https://github.com/kestra-io/plugin-template"));
+        }
+    }
+
+    @Test
+    void partialClone() throws Exception {
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .filter("blob:none")
+            .build();
+
+        Clone.Output runOutput = task.run(runContextFactory.of());
+
+        Collection<File> files = FileUtils.listFiles(Path.of(runOutput.getDirectory()).toFile(), null, true);
+        assertThat(files, hasItems(
+            hasProperty("path", endsWith("README.md")),
+            hasProperty("path", containsString(".git"))
+        ));
+
+        try (Git git = Git.open(Path.of(runOutput.getDirectory()).toFile())) {
+            assertThat(git.getRepository().getConfig().getBoolean("remote", "origin", "promisor", false), is(true));
+            assertThat(git.status().call().isClean(), is(true));
+        }
+    }
+
+    @Test
+    void sparseCheckout() throws Exception {
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch("reconcile")
+            .filter("blob:none")
+            .paths(List.of("to_clone/_flows"))
+            .build();
+
+        Clone.Output runOutput = task.run(runContextFactory.of());
+
+        Path directory = Path.of(runOutput.getDirectory());
+        assertThat(directory.resolve("README.md").toFile().exists(), is(true));
+        assertThat(directory.resolve("to_clone/_flows").toFile().isDirectory(), is(true));
+        // files directly inside a parent of the cone are checked out, sibling directories are not
+        assertThat(directory.resolve("to_clone/cloned.json").toFile().exists(), is(true));
+        assertThat(directory.resolve("to_clone/file_to_dir/file.txt").toFile().exists(), is(false));
+
+        // files outside the cone are skipped, not deleted
+        try (Git git = Git.open(directory.toFile())) {
+            assertThat(git.status().call().isClean(), is(true));
+            assertThat(git.getRepository().getConfig().getBoolean("core", "sparseCheckout", false), is(true));
+        }
+        assertThat(Files.readString(directory.resolve(".git/info/sparse-checkout")), is("/*\n!/*/\n/to_clone/\n!/to_clone/*/\n/to_clone/_flows/\n"));
+    }
+
+    @Test
+    void sparseCheckoutWithIndexVersion4() throws Exception {
+        RunContext runContext = runContextFactory.of();
+        Clone.Output runOutput = sparseClone(false).run(runContext);
+
+        Path directory = Path.of(runOutput.getDirectory());
+        try (Git git = Git.open(directory.toFile())) {
+            StoredConfig config = git.getRepository().getConfig();
+            config.setInt("index", null, "version", 4);
+            config.save();
+        }
+
+        // the path-compressed index written by JGit is rewritten in version 3 to flag the entries outside the cone
+        sparseClone(true).run(runContext);
+
+        try (Git git = Git.open(directory.toFile())) {
+            assertThat(git.status().call().isClean(), is(true));
+        }
+        assertThat(directory.resolve("to_clone/file_to_dir/file.txt").toFile().exists(), is(false));
+    }
+
+    @Test
+    void singleBranchWithoutTags() throws Exception {
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch("reconcile")
+            .singleBranch(true)
+            .fetchTags(false)
+            .build();
+
+        Clone.Output runOutput = task.run(runContextFactory.of());
+
+        try (Git git = Git.open(Path.of(runOutput.getDirectory()).toFile())) {
+            assertThat(git.branchList().setListMode(ListBranchCommand.ListMode.REMOTE).call(), hasSize(1));
+            assertThat(git.tagList().call(), empty());
+        }
+    }
+
+    @Test
+    void singleBranchWithoutBranch() throws Exception {
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .singleBranch(true)
+            .build();
+
+        Clone.Output runOutput = task.run(runContextFactory.of());
+
+        // only the default branch is fetched
+        try (Git git = Git.open(Path.of(runOutput.getDirectory()).toFile())) {
+            assertThat(git.branchList().setListMode(ListBranchCommand.ListMode.REMOTE).call(), hasSize(1));
+            assertThat(git.getRepository().getFullBranch(), is(runOutput.getBranch()));
+        }
+    }
+
+    @Test
+    void updateExistingRepository() throws Exception {
+        RunContext runContext = runContextFactory.of();
+
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .directory("repository")
+            .update(true)
+            .build();
+
+        Clone.Output cloneOutput = task.run(runContext);
+        Path readme = Path.of(cloneOutput.getDirectory()).resolve("README.md");
+        String readmeContent = FileUtils.readFileToString(readme.toFile(), "UTF-8");
+        FileUtils.writeStringToFile(readme.toFile(), "locally modified", "UTF-8");
+
+        Clone.Output updateOutput = task.run(runContext);
+
+        assertThat(updateOutput.getDirectory(), is(cloneOutput.getDirectory()));
+        assertThat(updateOutput.getCommitId(), is(cloneOutput.getCommitId()));
+        // HEAD stays on the remote default branch instead of being detached
+        assertThat(updateOutput.getBranch(), is(cloneOutput.getBranch()));
+        assertThat(FileUtils.readFileToString(readme.toFile(), "UTF-8"), is(readmeContent));
+    }
+
+    @Test
+    void parallelCheckout() throws Exception {
+        RunContext runContext = runContextFactory.of();
+
+        Clone task = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .parallelCheckout(true)
+            .build();
+
+        Clone.Output runOutput = task.run(runContext);
+
+        assertThat(Path.of(runOutput.getDirectory()).resolve("README.md").toFile().exists(), is(true));
+
+        try (Git git = Git.open(Path.of(runOutput.getDirectory()).toFile())) {
+            assertThat(git.status().call().isClean(), is(true));
+        }
+    }
+
+    @Test
+    void fromBundle() throws Exception {
+        RunContext runContext = runContextFactory.of();
+
+        Clone.Output seedOutput = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .directory("seed")
+            .depth(null)
+            .build()
+            .run(runContext);
+
+        File bundleFile = runContext.tempFile(".bundle").toFile();
+        try (Git git = Git.open(Path.of(seedOutput.getDirectory()).toFile()); OutputStream outputStream = new FileOutputStream(bundleFile)) {
+            BundleWriter bundleWriter = new BundleWriter(git.getRepository());
+            bundleWriter.include(Constants.HEAD, git.getRepository().resolve(Constants.HEAD));
+            bundleWriter.include(git.getRepository().getFullBranch(), git.getRepository().resolve(Constants.HEAD));
+            bundleWriter.writeBundle(NullProgressMonitor.INSTANCE, outputStream);
+        }
+        URI bundle = runContext.putTempFile(bundleFile);
+
+        Clone.Output runOutput = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .directory("fromBundle")
+            .bundle(bundle.toString())
+            .build()
+            .run(runContext);
+
+        assertThat(runOutput.getCommitId(), notNullValue());
+        assertThat(runOutput.getBranch(), is(seedOutput.getBranch()));
+        assertThat(Path.of(runOutput.getDirectory()).resolve("README.md").toFile().exists(), is(true));
+
+        // cloned into the task working directory, nothing but the repository is left there
+        RunContext taskRunContext = runContextFactory.of();
+        Clone.Output taskDirectoryOutput = Clone.builder()
+            .url("https://github.com/kestra-io/plugin-template")
+            .bundle(bundle.toString())
+            .build()
+            .run(taskRunContext);
+
+        assertThat(taskDirectoryOutput.getDirectory(), is(taskRunContext.tempDir().toString()));
+        try (Git git = Git.open(Path.of(taskDirectoryOutput.getDirectory()).toFile())) {
+            assertThat(git.status().call().isClean(), is(true));
+        }
+    }
+
+    @Test
+    void submodules() throws Exception {
+        PersonIdent author = new PersonIdent("Kestra", "kestra@kestra.io");
+
+        // the submodule has two commits, only the one recorded in the parent is fetched
+        Path submodule = Files.createTempDirectory("submodule");
+        try (Git git = Git.init().setDirectory(submodule.toFile()).call()) {
+            StoredConfig config = git.getRepository().getConfig();
+            config.setBoolean("uploadpack", null, "allowAnySHA1InWant", true);
+            config.save();
+
+            Files.writeString(submodule.resolve("file.txt"), "first version");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("First commit").setAuthor(author).setCommitter(author).call();
+
+            Files.writeString(submodule.resolve("file.txt"), "second version");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Second commit").setAuthor(author).setCommitter(author).call();
+        }
+
+        Path parent = Files.createTempDirectory("parent");
+        try (Git git = Git.init().setDirectory(parent.toFile()).call()) {
+            git.submoduleAdd().setPath("sub").setURI(submodule.toString()).call().close();
+            git.commit().setMessage("Add submodule").setAuthor(author).setCommitter(author).call();
+        }
+
+        Clone.Output runOutput = Clone.builder()
+            .url(parent.toString())
+            .depth(1)
+            .cloneSubmodules(true)
+            .build()
+            .run(runContextFactory.of());
+
+        Path directory = Path.of(runOutput.getDirectory());
+        assertThat(Files.readString(directory.resolve("sub/file.txt")), is("second version"));
+        assertThat(directory.resolve(".git/modules/sub/shallow").toFile().exists(), is(true));
+    }
+
+    @Test
+    void submodulesOutsideSparseCone() throws Exception {
+        PersonIdent author = new PersonIdent("Kestra", "kestra@kestra.io");
+
+        Path submodule = Files.createTempDirectory("submodule");
+        try (Git git = Git.init().setDirectory(submodule.toFile()).call()) {
+            Files.writeString(submodule.resolve("file.txt"), "submodule content");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Initial commit").setAuthor(author).setCommitter(author).call();
+        }
+
+        Path parent = Files.createTempDirectory("parent");
+        try (Git git = Git.init().setDirectory(parent.toFile()).call()) {
+            git.submoduleAdd().setPath("included/sub").setURI(submodule.toString()).call().close();
+            git.submoduleAdd().setPath("excluded/sub").setURI(submodule.toString()).call().close();
+            git.commit().setMessage("Add submodules").setAuthor(author).setCommitter(author).call();
+        }
+
+        Clone.Output runOutput = Clone.builder()
+            .url(parent.toString())
+            .paths(List.of("included"))
+            .parallelCheckout(true)
+            .cloneSubmodules(true)
+            .build()
+            .run(runContextFactory.of());
+
+        Path directory = Path.of(runOutput.getDirectory());
+        assertThat(Files.readString(directory.resolve("included/sub/file.txt")), is("submodule content"));
+        // neither initialized nor cloned
+        assertThat(directory.resolve("excluded/sub/file.txt").toFile().exists(), is(false));
+        assertThat(directory.resolve(".git/modules/excluded/sub").toFile().exists(), is(false));
+        try (Git git = Git.open(directory.toFile())) {
+            assertThat(git.getRepository().getConfig().getString("submodule", "excluded/sub", "url"), nullValue());
+        }
+    }
+
+    private Clone sparseClone(boolean update) {
+        return Clone.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch("reconcile")
+            .directory("sparse")
+            .paths(List.of("to_clone/_flows"))
+            .update(update)
+            .build();
+    }
 }
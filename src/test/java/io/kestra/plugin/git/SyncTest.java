@@ -2,6 +2,7 @@ package io.kestra.plugin.git;
 
 import io.kestra.core.models.executions.LogEntry;
 import io.kestra.core.models.flows.Flow;
+import io.kestra.core.models.flows.FlowWithSource;
 import io.kestra.core.queues.QueueFactoryInterface;
 import io.kestra.core.queues.QueueInterface;
 import io.kestra.core.repositories.FlowRepositoryInterface;
@@ -11,22 +12,31 @@ import io.kestra.core.serializers.YamlFlowParser;
 import io.kestra.core.storages.StorageInterface;
 import io.kestra.core.utils.KestraIgnore;
 import io.kestra.core.utils.TestsUtils;
+import io.kestra.plugin.git.services.SyncLocks;
+import io.kestra.plugin.git.services.SyncState;
 import io.micronaut.context.annotation.Value;
 import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.event.Level;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -34,8 +44,13 @@ import java.util.stream.Stream;
 
 import static io.kestra.core.utils.Rethrow.throwFunction;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @MicronautTest
 class SyncTest {
@@ -43,6 +58,7 @@ class SyncTest {
     public static final String NAMESPACE = "my.namespace";
     public static final String TENANT_ID = "my-tenant";
     public static final Pattern NAMESPACE_FINDER_PATTERN = Pattern.compile("(?m)^namespace: (.*)$");
+    private static final PersonIdent AUTHOR = new PersonIdent("Kestra", "kestra@kestra.io");
 
     @Inject
     private RunContextFactory runContextFactory;
@@ -66,8 +82,10 @@ class SyncTest {
     @BeforeEach
     void init() throws IOException {
         flowRepositoryInterface.findAllForAllTenants().forEach(flow -> flowRepositoryInterface.delete(flow));
-        storageInterface.deleteByPrefix(null, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE)));
-        storageInterface.deleteByPrefix(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE)));
+        // namespace files, synchronization states and child namespaces all live under the namespace directory
+        URI namespaceDirectory = URI.create(storageInterface.namespaceFilePrefix(NAMESPACE)).resolve(".");
+        storageInterface.deleteByPrefix(null, namespaceDirectory);
+        storageInterface.deleteByPrefix(TENANT_ID, namespaceDirectory);
     }
 
     @Test
@@ -194,7 +212,7 @@ class SyncTest {
             .branch(BRANCH)
             .build()
             .run(runContext);
-        assertFlows(TENANT_ID, runContext.tempDir().resolve(Path.of(clonedGitDirectory, "_flows")).toFile(), selfFlowSource);
+        assertFlows(TENANT_ID, runContext.tempDir().resolve(Path.of("repository", clonedGitDirectory, "_flows")).toFile(), selfFlowSource);
         // endregion
 
         // region namespace files
@@ -295,13 +313,16 @@ class SyncTest {
             .branch(BRANCH)
             .build()
             .run(runContext);
-        assertFlows(TENANT_ID, runContext.tempDir().resolve("_flows").toFile(), selfFlowSource);
+        assertFlows(TENANT_ID, runContext.tempDir().resolve(Path.of("repository", "_flows")).toFile(), selfFlowSource);
         // endregion
 
         // region namespace files
         assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + toDeleteFilePath)), is(false));
         assertNamespaceFileContent(TENANT_ID, "/README.md", "This repository is used for unit testing Git integration");
         assertNamespaceFileContent(TENANT_ID, "/ignored.json", "{\"ignored\": true}");
+        // no synchronization marker is written when not incremental
+        assertThat(storageInterface.allByPrefix(TENANT_ID, SyncState.directory(storageInterface, NAMESPACE), false).stream()
+            .noneMatch(uri -> uri.getPath().endsWith(".commit")), is(true));
         // endregion
         // endregion
     }
@@ -380,7 +401,7 @@ class SyncTest {
         assertNamespaceFileContent(null, namespace, someFilePath, someFileContent);
         assertThat(storageInterface.exists(null, URI.create(storageInterface.namespaceFilePrefix(namespace) + "/cloned.json")), is(false));
 
-        assertHasInfoLog(logs, "Dry run is enabled, not performing following actions (- for deletions, + for creations, ~ for update or no modification):");
+        assertHasInfoLog(logs, "Dry run is enabled, not performing following actions (- for deletions, + for creations, ~ for updates, = for unchanged files):");
         assertHasInfoLog(logs, "~ /_flows/first-flow.yml");
         assertHasInfoLog(logs, "~ /_flows/sub-namespace-flow.yml");
         assertHasInfoLog(logs, "- /_flows/some-flow.yml");
@@ -391,6 +412,563 @@ class SyncTest {
         assertHasInfoLog(logs, "+ /cloned.json");
     }
 
+    @Test
+    void reconcile_Incremental_ShouldOnlyApplyGitChanges() throws Exception {
+        Sync task = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch(BRANCH)
+            .gitDirectory("to_clone")
+            .incremental(true)
+            .build();
+        Map<String, Object> variables = Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ));
+        Sync.Output firstOutput = task.run(runContextFactory.of(variables));
+
+        assertNamespaceFileContent(TENANT_ID, "/cloned.json", "{\"my-field\": \"my-value\"}");
+        assertThat(firstOutput.getCommitId(), notNullValue());
+        assertThat(firstOutput.getNamespaceFilesAdded(), greaterThan(0));
+        assertThat(firstOutput.getBytesUploaded(), greaterThan(0L));
+        // the last synchronized commit is recorded outside of the namespace files
+        assertThat(storageInterface.allByPrefix(TENANT_ID, SyncState.directory(storageInterface, NAMESPACE), false).stream()
+            .anyMatch(uri -> uri.getPath().endsWith(".commit")), is(true));
+        assertThat(storageInterface.allByPrefix(TENANT_ID, URI.create("kestra://" + storageInterface.namespaceFilePrefix(NAMESPACE) + "/"), true).stream()
+            .noneMatch(uri -> uri.getPath().contains(SyncState.STATE_DIRECTORY)), is(true));
+
+        // modified outside of Git, it is kept as long as it doesn't change in Git
+        String localContent = "locally modified";
+        storageInterface.put(
+            TENANT_ID,
+            URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/cloned.json"),
+            new ByteArrayInputStream(localContent.getBytes())
+        );
+
+        Sync.Output secondOutput = task.run(runContextFactory.of(variables));
+
+        assertNamespaceFileContent(TENANT_ID, "/cloned.json", localContent);
+        // the branch head didn't move, nothing was even cloned
+        assertThat(secondOutput.getCommitId(), is(firstOutput.getCommitId()));
+        assertThat(secondOutput.getNamespaceFilesAdded(), is(0));
+    }
+
+    @Test
+    void reconcile_UnchangedFiles_ShouldNotBeUploadedAgain() throws Exception {
+        Sync task = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch(BRANCH)
+            .gitDirectory("to_clone")
+            .build();
+        Map<String, Object> variables = Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ));
+
+        Sync.Output firstOutput = task.run(runContextFactory.of(variables));
+        assertThat(firstOutput.getNamespaceFilesAdded(), greaterThan(0));
+
+        Sync.Output secondOutput = task.run(runContextFactory.of(variables));
+        assertThat(secondOutput.getNamespaceFilesAdded(), is(0));
+        assertThat(secondOutput.getNamespaceFilesUpdated(), is(0));
+        assertThat(secondOutput.getNamespaceFilesUnchanged(), greaterThan(0));
+        assertThat(secondOutput.getBytesUploaded(), is(0L));
+
+        // modified outside of Git, it no longer matches the index and is reverted
+        storageInterface.put(
+            TENANT_ID,
+            URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/cloned.json"),
+            new ByteArrayInputStream("locally modified".getBytes())
+        );
+
+        Sync.Output thirdOutput = task.run(runContextFactory.of(variables));
+        assertThat(thirdOutput.getNamespaceFilesUpdated(), is(1));
+        assertNamespaceFileContent(TENANT_ID, "/cloned.json", "{\"my-field\": \"my-value\"}");
+    }
+
+    @Test
+    void reconcile_OverlappingSyncs_ShouldBeCoalesced() throws Exception {
+        Sync task = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch(BRANCH)
+            .gitDirectory("to_clone")
+            .build();
+        Map<String, Object> variables = Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ));
+
+        List<LogEntry> logs = new CopyOnWriteArrayList<>();
+        logQueue.receive(l -> logs.add(l.getLeft()));
+
+        List<Sync.Output> outputs = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Sync.Output>> futures;
+            // both synchronizations wait for the lock held here, the second one to get it reuses the result of the first one
+            try (SyncLocks.Lease ignored = SyncLocks.acquire(Map.of(SyncLocks.key(TENANT_ID, NAMESPACE, null), "held by the test"))) {
+                futures = List.of(
+                    executor.submit(() -> task.run(runContextFactory.of(variables))),
+                    executor.submit(() -> task.run(runContextFactory.of(variables)))
+                );
+
+                // the lock is only released once both synchronizations are waiting for it
+                List<LogEntry> waitingLogs = TestsUtils.awaitLogs(
+                    logs,
+                    logEntry -> logEntry.getMessage().equals("Waiting for a concurrent synchronization of the same targets to finish"),
+                    2
+                );
+                assertThat(waitingLogs, hasSize(2));
+            }
+
+            for (Future<Sync.Output> future : futures) {
+                outputs.add(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertNamespaceFileContent(TENANT_ID, "/cloned.json", "{\"my-field\": \"my-value\"}");
+
+        Sync.Output synchronizedOutput = outputs.stream().filter(output -> output.getNamespaceFilesAdded() > 0).findFirst().orElseThrow();
+        Sync.Output coalescedOutput = outputs.stream().filter(output -> output != synchronizedOutput).findFirst().orElseThrow();
+        assertThat(coalescedOutput.getCommitId(), is(synchronizedOutput.getCommitId()));
+        // nothing was even compared
+        assertThat(coalescedOutput.getNamespaceFilesAdded(), is(0));
+        assertThat(coalescedOutput.getNamespaceFilesUnchanged(), is(0));
+    }
+
+    @Test
+    void reconcile_SummaryLogMode_ShouldWriteDiffFile() throws Exception {
+        Sync task = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch(BRANCH)
+            .gitDirectory("to_clone")
+            .logMode(Sync.LogMode.SUMMARY)
+            .build();
+        RunContext runContext = runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        )));
+        Sync.Output output = task.run(runContext);
+
+        assertNamespaceFileContent(TENANT_ID, "/cloned.json", "{\"my-field\": \"my-value\"}");
+        assertThat(output.getDiff(), notNullValue());
+        try (InputStream diff = runContext.uriToInputStream(output.getDiff())) {
+            String diffContent = new String(diff.readAllBytes());
+            assertThat(diffContent.contains("/cloned.json"), is(true));
+        }
+    }
+
+    @Test
+    void reconcile_MultipleTargets_ShouldSyncEachTargetFromOneClone() throws Exception {
+        String otherNamespace = NAMESPACE + ".other";
+        storageInterface.deleteByPrefix(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(otherNamespace)));
+
+        Sync task = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch(BRANCH)
+            .targets(List.of(
+                Sync.Target.builder().gitDirectory("to_clone").namespaceFilesDirectory("first").build(),
+                Sync.Target.builder().gitDirectory("to_clone").namespace(otherNamespace).build()
+            ))
+            .build();
+        Sync.Output output = task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ))));
+
+        assertNamespaceFileContent(TENANT_ID, "/first/cloned.json", "{\"my-field\": \"my-value\"}");
+        assertNamespaceFileContent(TENANT_ID, otherNamespace, "/cloned.json", "{\"my-field\": \"my-value\"}");
+        assertThat(flowRepositoryInterface.findByNamespace(TENANT_ID, otherNamespace).isEmpty(), is(false));
+        assertThat(output.getNamespaceFilesAdded(), greaterThan(0));
+    }
+
+    @Test
+    void reconcile_TargetOutsideFlowNamespace_ShouldFail() {
+        Map<String, Object> variables = Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ));
+
+        Sync otherNamespaceTask = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .branch(BRANCH)
+            .targets(List.of(Sync.Target.builder().namespace("another.namespace").build()))
+            .build();
+        assertThrows(IllegalArgumentException.class, () -> otherNamespaceTask.run(runContextFactory.of(variables)));
+
+        // the parent target would delete the flows the child target imports
+        Sync nestedNamespacesTask = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .branch(BRANCH)
+            .flowDirectoriesAsNamespaces(true)
+            .targets(List.of(
+                Sync.Target.builder().gitDirectory("to_clone").build(),
+                Sync.Target.builder().gitDirectory("to_clone").namespace(NAMESPACE + ".child").build()
+            ))
+            .build();
+        assertThrows(IllegalArgumentException.class, () -> nestedNamespacesTask.run(runContextFactory.of(variables)));
+    }
+
+    @Test
+    void reconcile_Bare_ShouldSyncFromGitObjects() throws Exception {
+        String destinationDirectory = "sync_directory";
+        Sync task = Sync.builder()
+            .url("https://github.com/kestra-io/unit-tests")
+            .username(pat)
+            .password(pat)
+            .branch(BRANCH)
+            .gitDirectory("to_clone")
+            .namespaceFilesDirectory(destinationDirectory)
+            .bare(true)
+            .build();
+        task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ))));
+
+        assertNamespaceFileContent(TENANT_ID, "/" + destinationDirectory + "/cloned.json", "{\"my-field\": \"my-value\"}");
+        assertNamespaceFileContent(TENANT_ID, "/" + destinationDirectory + "/file_to_dir/file.txt", "directory replacing file");
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/" + KestraIgnore.KESTRA_IGNORE_FILE_NAME)), is(false));
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/file_to_ignore.txt")), is(false));
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/dir_to_ignore")), is(false));
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/_flows")), is(false));
+        assertThat(flowRepositoryInterface.findAllForAllTenants().isEmpty(), is(false));
+    }
+
+    @Test
+    void reconcile_FlowDirectoriesAsNamespaces_ShouldMapNestedDirectoriesToChildNamespaces() throws Exception {
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of(
+                "_flows/root-flow.yml", flowSource("root-flow"),
+                "_flows/a/a-flow.yml", flowSource("a-flow"),
+                "_flows/b/c/c-flow.yml", flowSource("c-flow")
+            )))
+            .branch(BRANCH)
+            .flowDirectoriesAsNamespaces(true)
+            .build();
+        task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ))));
+
+        assertThat(flowIds(NAMESPACE), is(List.of("root-flow")));
+        assertThat(flowIds(NAMESPACE + ".a"), is(List.of("a-flow")));
+        assertThat(flowIds(NAMESPACE + ".b.c"), is(List.of("c-flow")));
+    }
+
+    @Test
+    void reconcile_SelfFlowId_ShouldOnlyProtectTheRunningFlow() throws Exception {
+        // the running flow, and a flow with the same id in a child namespace that is no longer in Git
+        for (String namespace : List.of(NAMESPACE, NAMESPACE + ".a")) {
+            String source = flowSource("self-flow").replace("namespace: " + NAMESPACE, "namespace: " + namespace);
+            Flow flow = yamlFlowParser.parse(source, Flow.class).toBuilder().tenantId(TENANT_ID).build();
+            flowRepositoryInterface.create(flow, source, flow);
+        }
+
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of("_flows/a/a-flow.yml", flowSource("a-flow"))))
+            .branch(BRANCH)
+            .flowDirectoriesAsNamespaces(true)
+            .build();
+        task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ))));
+
+        assertThat(flowIds(NAMESPACE), is(List.of("self-flow")));
+        assertThat(flowIds(NAMESPACE + ".a"), is(List.of("a-flow")));
+    }
+
+    @Test
+    void reconcile_NestedFlowDirectories_ShouldBeDiscovered() throws Exception {
+        List<LogEntry> logs = new CopyOnWriteArrayList<>();
+        logQueue.receive(l -> logs.add(l.getLeft()));
+
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of(
+                "_flows/root-flow.yml", flowSource("root-flow"),
+                "_flows/nested/deep/flow.yml", flowSource("nested-flow")
+            )))
+            .branch(BRANCH)
+            .build();
+        task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ))));
+
+        assertThat(flowIds(NAMESPACE), is(List.of("nested-flow", "root-flow")));
+        // changes are reported with the path of the flow file, not one derived from the flow id
+        assertHasInfoLog(logs, "+ /_flows/nested/deep/flow.yml");
+    }
+
+    @Test
+    void reconcile_DuplicateFlows_ShouldFail() throws Exception {
+        // both files map to the same flow when directories are not namespaces
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of(
+                "_flows/first/duplicate.yml", flowSource("duplicate"),
+                "_flows/second/duplicate.yml", flowSource("duplicate"),
+                "_flows/other-flow.yml", flowSource("other-flow")
+            )))
+            .branch(BRANCH)
+            .build();
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        )))));
+
+        assertThat(exception.getMessage(), containsString("duplicate flow '" + NAMESPACE + "/duplicate'"));
+        assertThat(flowRepositoryInterface.findAllForAllTenants(), empty());
+    }
+
+    @Test
+    void reconcile_InvalidFlow_ShouldChangeNothing() throws Exception {
+        String storedFlowSource = flowSource("valid-flow");
+        Flow storedFlow = yamlFlowParser.parse(storedFlowSource, Flow.class).toBuilder().tenantId(TENANT_ID).build();
+        flowRepositoryInterface.create(storedFlow, storedFlowSource, storedFlow);
+        storageInterface.put(
+            TENANT_ID,
+            URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/stored.txt"),
+            new ByteArrayInputStream("stored content".getBytes())
+        );
+
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of(
+                "_flows/valid-flow.yml", flowSource("valid-flow").replace("Hello from", "Updated from"),
+                "_flows/new-flow.yml", flowSource("new-flow"),
+                "_flows/invalid-flow.yml", "id: invalid-flow\nnamespace: " + NAMESPACE + "\n",
+                "file.txt", "file content"
+            )))
+            .branch(BRANCH)
+            .build();
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        )))));
+
+        assertThat(exception.getMessage(), containsString("/_flows/invalid-flow.yml"));
+        List<FlowWithSource> flows = flowRepositoryInterface.findWithSource(null, TENANT_ID, NAMESPACE, null);
+        assertThat(flows, hasSize(1));
+        assertThat(flows.get(0).getSource(), is(storedFlowSource));
+        assertNamespaceFileContent(TENANT_ID, "/stored.txt", "stored content");
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/file.txt")), is(false));
+    }
+
+    @Test
+    void reconcile_InvalidFlowInOneTarget_ShouldChangeNoTarget() throws Exception {
+        String otherNamespace = NAMESPACE + ".other";
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of(
+                "valid/_flows/valid-flow.yml", flowSource("valid-flow"),
+                "valid/file.txt", "file content",
+                "invalid/_flows/invalid-flow.yml", "id: invalid-flow\nnamespace: " + NAMESPACE + "\n"
+            )))
+            .branch(BRANCH)
+            .targets(List.of(
+                Sync.Target.builder().gitDirectory("valid").namespaceFilesDirectory("valid").build(),
+                Sync.Target.builder().gitDirectory("invalid").namespace(otherNamespace).build()
+            ))
+            .build();
+
+        assertThrows(Exception.class, () -> task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        )))));
+
+        // every target is compared before any is applied
+        assertThat(flowRepositoryInterface.findAllForAllTenants(), empty());
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/valid/file.txt")), is(false));
+    }
+
+    @Test
+    void reconcile_Subflows_ShouldBeImportedBeforeTheirParents() throws Exception {
+        // the parent comes first alphabetically, but calls the child as a subflow
+        String parentSource = flowSource("a-parent") + """
+              - id: call-child
+                type: io.kestra.core.tasks.flows.Flow
+                namespace: %s
+                flowId: z-child
+            """.formatted(NAMESPACE);
+        Sync task = Sync.builder()
+            .url(localRepository(Map.of(
+                "_flows/a-parent.yml", parentSource,
+                "_flows/z-child.yml", flowSource("z-child")
+            )))
+            .branch(BRANCH)
+            .logMode(Sync.LogMode.SUMMARY)
+            .build();
+        RunContext runContext = runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        )));
+        Sync.Output output = task.run(runContext);
+
+        assertThat(flowIds(NAMESPACE), is(List.of("a-parent", "z-child")));
+        // the diff file is written outside the cloned working tree, so it isn't synchronized as a namespace file
+        assertThat(storageInterface.allByPrefix(TENANT_ID, URI.create("kestra://" + storageInterface.namespaceFilePrefix(NAMESPACE) + "/"), true), empty());
+        try (InputStream diff = runContext.uriToInputStream(output.getDiff())) {
+            String diffContent = new String(diff.readAllBytes());
+            assertThat(diffContent.indexOf("/_flows/z-child.yml"), greaterThan(-1));
+            assertThat(diffContent.indexOf("/_flows/a-parent.yml"), greaterThan(diffContent.indexOf("/_flows/z-child.yml")));
+        }
+    }
+
+    @Test
+    void reconcile_CloneSubmodules_ShouldSyncSubmoduleFiles() throws Exception {
+        String submodule = localRepository(Map.of("file.txt", "submodule content"));
+        String repository = localRepository(Map.of("README.md", "README content"));
+        try (Git git = Git.open(new File(repository))) {
+            git.submoduleAdd().setPath("sub").setURI(submodule).call().close();
+            git.commit().setMessage("Add submodule").setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+        }
+
+        Sync task = Sync.builder()
+            .url(repository)
+            .branch(BRANCH)
+            .cloneSubmodules(true)
+            .build();
+        task.run(runContextFactory.of(Map.of("flow", Map.of(
+            "namespace", NAMESPACE,
+            "id", "self-flow",
+            "tenantId", TENANT_ID
+        ))));
+
+        assertNamespaceFileContent(TENANT_ID, "/README.md", "README content");
+        assertNamespaceFileContent(TENANT_ID, "/sub/file.txt", "submodule content");
+        // the file linking the submodule working tree to its repository is not a namespace file
+        assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/sub/.git")), is(false));
+    }
+
+    @Test
+    void reconcile_BinaryFile_ShouldBeSyncedByteForByte() throws Exception {
+        // not valid UTF-8, with NUL, CR and LF bytes that any text decoding or line ending conversion would alter
+        byte[] content = {0x00, (byte) 0xff, (byte) 0xfe, (byte) 0x80, 0x0d, 0x0a, (byte) 0xc3, 0x28, 0x0a, 0x00};
+        String repository = localRepository(Map.of("README.md", "README content"));
+        try (Git git = Git.open(new File(repository))) {
+            Files.write(Path.of(repository, "image.bin"), content);
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Add binary file").setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+        }
+
+        for (boolean bare : List.of(false, true)) {
+            String destinationDirectory = bare ? "bare" : "working_tree";
+            Sync task = Sync.builder()
+                .url(repository)
+                .branch(BRANCH)
+                .namespaceFilesDirectory(destinationDirectory)
+                .bare(bare)
+                .build();
+            task.run(runContextFactory.of(Map.of("flow", Map.of(
+                "namespace", NAMESPACE,
+                "id", "self-flow",
+                "tenantId", TENANT_ID
+            ))));
+
+            try (InputStream is = storageInterface.get(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/image.bin"))) {
+                assertThat(is.readAllBytes(), is(content));
+            }
+        }
+    }
+
+    @Test
+    void reconcile_SymbolicLinks_ShouldBeSkippedInBothModes() throws Exception {
+        Path outside = Files.createTempFile("sync-test", ".txt");
+        Files.writeString(outside, "outside content");
+        String repository = localRepository(Map.of("file.txt", "file content"));
+        try (Git git = Git.open(new File(repository))) {
+            Files.createSymbolicLink(Path.of(repository, "link.txt"), Path.of("file.txt"));
+            Files.createSymbolicLink(Path.of(repository, "outside.txt"), outside);
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Add links").setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+        }
+
+        for (boolean bare : List.of(false, true)) {
+            String destinationDirectory = bare ? "bare" : "working_tree";
+            Sync task = Sync.builder()
+                .url(repository)
+                .branch(BRANCH)
+                .namespaceFilesDirectory(destinationDirectory)
+                .bare(bare)
+                .build();
+            task.run(runContextFactory.of(Map.of("flow", Map.of(
+                "namespace", NAMESPACE,
+                "id", "self-flow",
+                "tenantId", TENANT_ID
+            ))));
+
+            assertNamespaceFileContent(TENANT_ID, "/" + destinationDirectory + "/file.txt", "file content");
+            assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/link.txt")), is(false));
+            assertThat(storageInterface.exists(TENANT_ID, URI.create(storageInterface.namespaceFilePrefix(NAMESPACE) + "/" + destinationDirectory + "/outside.txt")), is(false));
+        }
+    }
+
+    /**
+     * Creates a local repository with the given files committed on {@link #BRANCH}.
+     *
+     * @return the path of the repository, to be used as its URL.
+     */
+    private static String localRepository(Map<String, String> contentByPath) throws Exception {
+        Path directory = Files.createTempDirectory("sync-test");
+        try (Git git = Git.init().setDirectory(directory.toFile()).setInitialBranch(BRANCH).call()) {
+            for (Map.Entry<String, String> file : contentByPath.entrySet()) {
+                Path path = directory.resolve(file.getKey());
+                Files.createDirectories(path.getParent());
+                Files.writeString(path, file.getValue());
+            }
+
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Initial commit").setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+        }
+
+        return directory.toString();
+    }
+
+    private static String flowSource(String id) {
+        return """
+            id: %s
+            namespace: %s
+
+            tasks:
+              - id: log
+                type: io.kestra.core.tasks.log.Log
+                message: Hello from %s
+            """.formatted(id, NAMESPACE, id);
+    }
+
+    private List<String> flowIds(String namespace) {
+        return flowRepositoryInterface.findByNamespace(TENANT_ID, namespace).stream()
+            .map(Flow::getId)
+            .sorted()
+            .toList();
+    }
+
     private static void assertHasInfoLog(List<LogEntry> logs, String expectedMessage) {
         List<LogEntry> logEntries = TestsUtils.awaitLogs(
             logs,